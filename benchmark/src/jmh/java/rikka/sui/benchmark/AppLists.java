@@ -0,0 +1,94 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package rikka.sui.benchmark;
+
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import rikka.sui.model.AppInfo;
+import rikka.sui.server.SuiConfig;
+import rikka.sui.util.UserHandleCompat;
+
+/**
+ * Generates app lists which look like the ones of a real device: mostly Latin labels, some
+ * CJK ones, labels starting with digits or symbols, a few apps without a label, and apps
+ * installed in a second user.
+ */
+class AppLists {
+
+    private static final String[] WORDS = {
+            "Camera", "Gallery", "Files", "Clock", "Calendar", "Maps", "Music", "Notes", "Weather",
+            "Wallet", "Photo", "Editor", "Browser", "Mail", "Chat", "Video", "Player", "Reader",
+            "Shizuku", "Terminal", "Manager", "Backup", "Tools", "Launcher", "Keyboard"
+    };
+
+    private static final String[] CJK = {"\u76f8\u673a", "\u56fe\u5e93", "\u6587\u4ef6", "\u65f6\u949f", "\u65e5\u5386", "\u5730\u56fe", "\u97f3\u4e50", "\u8bbe\u7f6e", "\u5fae\u4fe1", "\u652f\u4ed8\u5b9d"};
+
+    private static final String[] PREFIXES = {"", "", "", "", "", "", "1", "2", "@", "#", "(", "_"};
+
+    static List<AppInfo> create(int size, long seed) {
+        Random random = new Random(seed);
+        List<AppInfo> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String label;
+            int kind = random.nextInt(20);
+            if (kind < 13) {
+                label = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)];
+            } else if (kind < 17) {
+                label = CJK[random.nextInt(CJK.length)] + CJK[random.nextInt(CJK.length)];
+            } else if (kind < 19) {
+                label = PREFIXES[random.nextInt(PREFIXES.length)] + WORDS[random.nextInt(WORDS.length)];
+            } else {
+                label = null;
+            }
+
+            int userId = random.nextInt(10) == 0 ? 10 : 0;
+            int appId = 10000 + i;
+
+            ApplicationInfo ai = new ApplicationInfo();
+            ai.packageName = "com.example." + WORDS[random.nextInt(WORDS.length)].toLowerCase() + i;
+            ai.uid = userId * UserHandleCompat.PER_USER_RANGE + appId;
+
+            PackageInfo pi = new PackageInfo();
+            pi.packageName = ai.packageName;
+            pi.applicationInfo = ai;
+
+            AppInfo appInfo = new AppInfo();
+            appInfo.packageInfo = pi;
+            appInfo.label = label;
+
+            // Most apps have no config, some are allowed, denied or hidden
+            int config = random.nextInt(10);
+            if (config == 0) {
+                appInfo.flags = SuiConfig.FLAG_ALLOWED;
+            } else if (config == 1) {
+                appInfo.flags = SuiConfig.FLAG_DENIED;
+            } else if (config == 2) {
+                appInfo.flags = SuiConfig.FLAG_HIDDEN;
+            }
+            list.add(appInfo);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package rikka.sui.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import rikka.sui.model.AppInfo;
+import rikka.sui.util.AppInfoComparator;
+import rikka.sui.util.LabelComparator;
+
+/**
+ * Sorting of the app list in the management UI.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AppSortBenchmark {
+
+    @Param({"100", "400", "1500"})
+    public int size;
+
+    private List<AppInfo> apps;
+    private List<String> labels;
+    private List<AppInfo> appsToSort;
+    private List<String> labelsToSort;
+
+    private final AppInfoComparator appInfoComparator = new AppInfoComparator();
+    private final LabelComparator labelComparator = new LabelComparator();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        apps = AppLists.create(size, 42);
+        labels = new ArrayList<>(size);
+        for (AppInfo app : apps) {
+            labels.add(app.label != null ? app.label.toString() : app.packageInfo.packageName);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void shuffle() {
+        appsToSort = new ArrayList<>(apps);
+        labelsToSort = new ArrayList<>(labels);
+    }
+
+    @Benchmark
+    public List<AppInfo> appInfoComparator() {
+        appsToSort.sort(appInfoComparator);
+        return appsToSort;
+    }
+
+    @Benchmark
+    public List<String> labelComparator() {
+        labelsToSort.sort(labelComparator);
+        return labelsToSort;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package rikka.sui.benchmark;
+
+import android.os.Binder;
+import android.os.IBinder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import moe.shizuku.server.IShizukuApplication;
+import rikka.shizuku.server.ClientRecord;
+import rikka.sui.server.SuiClientManager;
+import rikka.sui.server.SuiConfigManager;
+
+/**
+ * Client lookups, done for every call from an app. Each uid has a few processes attached.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ClientManagerBenchmark {
+
+    private static final int PROCESSES_PER_UID = 3;
+
+    @Param({"10", "50", "200"})
+    public int uids;
+
+    private SuiClientManager clientManager;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        int next;
+    }
+
+    private static class Application implements IShizukuApplication {
+
+        private final IBinder binder = new Binder();
+
+        @Override
+        public IBinder asBinder() {
+            return binder;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        clientManager = new SuiClientManager(new SuiConfigManager());
+        for (int i = 0; i < uids; i++) {
+            for (int p = 0; p < PROCESSES_PER_UID; p++) {
+                clientManager.addClient(uid(i), pid(i, p), new Application(), "com.example.app" + i, 13);
+            }
+        }
+    }
+
+    private static int uid(int i) {
+        return 10000 + i;
+    }
+
+    private static int pid(int i, int p) {
+        return 1000 + i * PROCESSES_PER_UID + p;
+    }
+
+    @Benchmark
+    public ClientRecord findClient(Cursor cursor) {
+        int i = cursor.next++ % uids;
+        return clientManager.findClient(uid(i), pid(i, i % PROCESSES_PER_UID));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public ClientRecord findClientContended(Cursor cursor) {
+        int i = cursor.next++ % uids;
+        return clientManager.findClient(uid(i), pid(i, i % PROCESSES_PER_UID));
+    }
+
+    @Benchmark
+    public List<ClientRecord> findClients(Cursor cursor) {
+        return clientManager.findClients(uid(cursor.next++ % uids));
+    }
+}
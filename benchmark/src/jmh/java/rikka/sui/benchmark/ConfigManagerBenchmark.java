@@ -0,0 +1,106 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package rikka.sui.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+import rikka.sui.server.SuiConfig;
+import rikka.sui.server.SuiConfigManager;
+
+/**
+ * Lookups and updates of the per-uid config, which run on every permission check and
+ * attach. Writes to the database are stand-ins which do nothing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ConfigManagerBenchmark {
+
+    @Param({"20", "200", "1000"})
+    public int entries;
+
+    private SuiConfigManager configManager;
+    private int[] uids;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        int next;
+    }
+
+    @Setup
+    public void setUp() {
+        configManager = new SuiConfigManager();
+        uids = new int[entries];
+        for (int i = 0; i < entries; i++) {
+            uids[i] = 10000 + i * 3;
+            configManager.update(uids[i], SuiConfig.MASK_PERMISSION, i % 5 == 0 ? SuiConfig.FLAG_HIDDEN : SuiConfig.FLAG_ALLOWED);
+        }
+    }
+
+    private int nextUid(Cursor cursor) {
+        int uid = uids[cursor.next];
+        cursor.next = (cursor.next + 1) % uids.length;
+        return uid;
+    }
+
+    @Benchmark
+    public Object findHit(Cursor cursor) {
+        return configManager.find(nextUid(cursor));
+    }
+
+    @Benchmark
+    public Object findMiss(Cursor cursor) {
+        return configManager.find(nextUid(cursor) + 1);
+    }
+
+    @Benchmark
+    public boolean isHidden(Cursor cursor) {
+        return configManager.isHidden(nextUid(cursor));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean isHiddenContended(Cursor cursor) {
+        return configManager.isHidden(nextUid(cursor));
+    }
+
+    @Benchmark
+    public void update(Cursor cursor) {
+        int uid = nextUid(cursor);
+        configManager.update(uid, SuiConfig.FLAG_ALLOWED | SuiConfig.FLAG_DENIED,
+                (cursor.next & 1) == 0 ? SuiConfig.FLAG_ALLOWED : SuiConfig.FLAG_DENIED);
+    }
+
+    @Benchmark
+    public int[] getHiddenUids() {
+        return configManager.getHiddenUids();
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package rikka.sui.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import rikka.sui.util.Logger;
+
+/**
+ * Cost of log calls on the hot paths. The level comes from persist.sui.log_level, which the
+ * stand-in reads from JVM properties, so the default of a release build (info) applies.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LoggerBenchmark {
+
+    private final Logger logger = new Logger("SuiBenchmark");
+
+    private int uid = 10123;
+    private int pid = 4567;
+    private String packageName = "com.example.app";
+
+    @Benchmark
+    public void verboseFiltered() {
+        logger.v("attachApplication: %s %d %d", packageName, uid, pid);
+    }
+
+    @Benchmark
+    public void debugFiltered() {
+        logger.d("transact: code=%d, calling uid=%d", pid, uid);
+    }
+
+    @Benchmark
+    public void infoFormatted() {
+        logger.i("attachApplication: %s %d %d", packageName, uid, pid);
+    }
+
+    @Benchmark
+    public void infoPlain() {
+        logger.i("send service to bridge");
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package rikka.sui.benchmark;
+
+import android.os.Binder;
+import android.os.IBinder;
+import android.os.IInterface;
+import android.os.Parcel;
+import android.os.RemoteException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import rikka.sui.binder.Transaction;
+import rikka.sui.binder.TransactionCodeExporter;
+
+/**
+ * Exporting transaction codes from an AIDL proxy, which system_server does at startup for
+ * every interface it hooks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TransactionCodeExporterBenchmark {
+
+    /**
+     * Shaped like an AIDL generated interface.
+     */
+    public interface IExample extends IInterface {
+
+        String DESCRIPTOR = "rikka.sui.benchmark.IExample";
+
+        int getUid(String packageName, int userId) throws RemoteException;
+
+        void setFlags(int uid, int mask, int values) throws RemoteException;
+
+        long getLastUsed(String packageName) throws RemoteException;
+
+        boolean isHidden(int uid) throws RemoteException;
+
+        abstract class Stub extends Binder implements IExample {
+
+            static final int TRANSACTION_getUid = IBinder.FIRST_CALL_TRANSACTION;
+            static final int TRANSACTION_setFlags = IBinder.FIRST_CALL_TRANSACTION + 1;
+            static final int TRANSACTION_getLastUsed = IBinder.FIRST_CALL_TRANSACTION + 2;
+            static final int TRANSACTION_isHidden = IBinder.FIRST_CALL_TRANSACTION + 3;
+
+            public static IExample asInterface(IBinder obj) {
+                if (obj == null) {
+                    return null;
+                }
+                IInterface iin = obj.queryLocalInterface(DESCRIPTOR);
+                if (iin instanceof IExample) {
+                    return (IExample) iin;
+                }
+                return new Proxy(obj);
+            }
+
+            // Public unlike AIDL, the JVM checks class access of reflective calls where ART does not
+            public static class Proxy implements IExample {
+
+                private final IBinder remote;
+
+                Proxy(IBinder remote) {
+                    this.remote = remote;
+                }
+
+                @Override
+                public IBinder asBinder() {
+                    return remote;
+                }
+
+                private Parcel call(int code, Parcel data) throws RemoteException {
+                    Parcel reply = Parcel.obtain();
+                    try {
+                        remote.transact(code, data, reply, 0);
+                        reply.readException();
+                        return reply;
+                    } finally {
+                        data.recycle();
+                    }
+                }
+
+                @Override
+                public int getUid(String packageName, int userId) throws RemoteException {
+                    Parcel data = Parcel.obtain();
+                    data.writeInterfaceToken(DESCRIPTOR);
+                    data.writeString(packageName);
+                    data.writeInt(userId);
+                    Parcel reply = call(TRANSACTION_getUid, data);
+                    int result = reply.readInt();
+                    reply.recycle();
+                    return result;
+                }
+
+                @Override
+                public void setFlags(int uid, int mask, int values) throws RemoteException {
+                    Parcel data = Parcel.obtain();
+                    data.writeInterfaceToken(DESCRIPTOR);
+                    data.writeInt(uid);
+                    data.writeInt(mask);
+                    data.writeInt(values);
+                    call(TRANSACTION_setFlags, data).recycle();
+                }
+
+                @Override
+                public long getLastUsed(String packageName) throws RemoteException {
+                    Parcel data = Parcel.obtain();
+                    data.writeInterfaceToken(DESCRIPTOR);
+                    data.writeString(packageName);
+                    Parcel reply = call(TRANSACTION_getLastUsed, data);
+                    long result = reply.readLong();
+                    reply.recycle();
+                    return result;
+                }
+
+                @Override
+                public boolean isHidden(int uid) throws RemoteException {
+                    Parcel data = Parcel.obtain();
+                    data.writeInterfaceToken(DESCRIPTOR);
+                    data.writeInt(uid);
+                    Parcel reply = call(TRANSACTION_isHidden, data);
+                    boolean result = reply.readInt() != 0;
+                    reply.recycle();
+                    return result;
+                }
+            }
+        }
+    }
+
+    /**
+     * Methods to export, like the method classes of Sui.
+     */
+    public interface ExampleMethods {
+
+        @Transaction
+        int getUid(String packageName, int userId);
+
+        @Transaction
+        void setFlags(int uid, int mask, int values);
+
+        @Transaction
+        long getLastUsed(String packageName);
+
+        @Transaction
+        boolean isHidden(int uid);
+    }
+
+    @Benchmark
+    public Set<Integer> exportAll() {
+        return TransactionCodeExporter.exportAll(IExample.Stub.class, ExampleMethods.class);
+    }
+}
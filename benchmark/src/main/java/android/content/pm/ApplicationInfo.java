@@ -0,0 +1,33 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package android.content.pm;
+
+public class ApplicationInfo {
+
+    public static final int FLAG_SYSTEM = 1;
+    public static final int FLAG_HAS_CODE = 1 << 2;
+
+    public String packageName;
+    public int uid;
+    public int flags;
+    public String sourceDir;
+    public String dataDir;
+    public String deviceProtectedDataDir;
+}
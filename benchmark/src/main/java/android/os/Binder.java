@@ -0,0 +1,91 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package android.os;
+
+import java.io.FileDescriptor;
+
+/**
+ * Stand-in for a local binder, transactions are direct calls to {@link #onTransact}.
+ */
+public class Binder implements IBinder {
+
+    private IInterface owner;
+    private String descriptor;
+
+    public static int getCallingUid() {
+        return 0;
+    }
+
+    public static int getCallingPid() {
+        return 0;
+    }
+
+    public void attachInterface(IInterface owner, String descriptor) {
+        this.owner = owner;
+        this.descriptor = descriptor;
+    }
+
+    @Override
+    public String getInterfaceDescriptor() {
+        return descriptor;
+    }
+
+    @Override
+    public boolean pingBinder() {
+        return true;
+    }
+
+    @Override
+    public boolean isBinderAlive() {
+        return true;
+    }
+
+    @Override
+    public IInterface queryLocalInterface(String descriptor) {
+        return descriptor != null && descriptor.equals(this.descriptor) ? owner : null;
+    }
+
+    @Override
+    public void dump(FileDescriptor fd, String[] args) {
+    }
+
+    @Override
+    public void dumpAsync(FileDescriptor fd, String[] args) {
+    }
+
+    @Override
+    public boolean transact(int code, Parcel data, Parcel reply, int flags) throws RemoteException {
+        data.setDataPosition(0);
+        return onTransact(code, data, reply, flags);
+    }
+
+    protected boolean onTransact(int code, Parcel data, Parcel reply, int flags) throws RemoteException {
+        return false;
+    }
+
+    @Override
+    public void linkToDeath(DeathRecipient recipient, int flags) {
+    }
+
+    @Override
+    public boolean unlinkToDeath(DeathRecipient recipient, int flags) {
+        return true;
+    }
+}
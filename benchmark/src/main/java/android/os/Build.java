@@ -0,0 +1,44 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package android.os;
+
+/**
+ * Stand-in for the host JVM, the values of a recent release.
+ */
+public class Build {
+
+    public static class VERSION {
+
+        public static final int SDK_INT = 33;
+        public static final int PREVIEW_SDK_INT = 0;
+    }
+
+    public static class VERSION_CODES {
+
+        public static final int M = 23;
+        public static final int N = 24;
+        public static final int O = 26;
+        public static final int P = 28;
+        public static final int Q = 29;
+        public static final int R = 30;
+        public static final int S = 31;
+        public static final int TIRAMISU = 33;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package android.os;
+
+import java.io.FileDescriptor;
+
+public interface IBinder {
+
+    int FIRST_CALL_TRANSACTION = 0x00000001;
+    int FLAG_ONEWAY = 0x00000001;
+
+    interface DeathRecipient {
+
+        void binderDied();
+    }
+
+    String getInterfaceDescriptor() throws RemoteException;
+
+    boolean pingBinder();
+
+    boolean isBinderAlive();
+
+    IInterface queryLocalInterface(String descriptor);
+
+    void dump(FileDescriptor fd, String[] args) throws RemoteException;
+
+    void dumpAsync(FileDescriptor fd, String[] args) throws RemoteException;
+
+    boolean transact(int code, Parcel data, Parcel reply, int flags) throws RemoteException;
+
+    void linkToDeath(DeathRecipient recipient, int flags) throws RemoteException;
+
+    boolean unlinkToDeath(DeathRecipient recipient, int flags);
+}
@@ -0,0 +1,136 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package android.os;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stand-in which keeps the written values in a list instead of a native buffer. It's only
+ * meant to let the code under test run, its costs are not those of the real Parcel.
+ */
+public final class Parcel {
+
+    private final List<Object> values = new ArrayList<>();
+    private int position;
+
+    private Parcel() {
+    }
+
+    public static Parcel obtain() {
+        return new Parcel();
+    }
+
+    public void recycle() {
+        values.clear();
+        position = 0;
+    }
+
+    public int dataPosition() {
+        return position;
+    }
+
+    public void setDataPosition(int position) {
+        this.position = position;
+    }
+
+    public int dataAvail() {
+        return values.size() - position;
+    }
+
+    private void write(Object value) {
+        if (position < values.size()) {
+            values.set(position, value);
+        } else {
+            values.add(value);
+        }
+        position++;
+    }
+
+    private Object read() {
+        return position < values.size() ? values.get(position++) : null;
+    }
+
+    public void writeInterfaceToken(String descriptor) {
+        write(descriptor);
+    }
+
+    public void enforceInterface(String descriptor) {
+        Object token = read();
+        if (!descriptor.equals(token)) {
+            throw new SecurityException("Binder invocation to an incorrect interface");
+        }
+    }
+
+    public void writeNoException() {
+        write(0);
+    }
+
+    public void readException() {
+        read();
+    }
+
+    public void writeInt(int value) {
+        write(value);
+    }
+
+    public int readInt() {
+        Object value = read();
+        return value != null ? (Integer) value : 0;
+    }
+
+    public void writeLong(long value) {
+        write(value);
+    }
+
+    public long readLong() {
+        Object value = read();
+        return value != null ? (Long) value : 0;
+    }
+
+    public void writeString(String value) {
+        write(value);
+    }
+
+    public String readString() {
+        return (String) read();
+    }
+
+    public void writeStrongBinder(IBinder binder) {
+        write(binder);
+    }
+
+    public IBinder readStrongBinder() {
+        return (IBinder) read();
+    }
+
+    public void writeParcelable(Parcelable p, int flags) {
+        write(p);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends Parcelable> T readParcelable(ClassLoader loader) {
+        return (T) read();
+    }
+
+    public void writeTypedObject(Parcelable p, int flags) {
+        write(p);
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package android.os;
+
+/**
+ * Stand-in for a process of the owner user.
+ */
+public class Process {
+
+    private static final UserHandle USER = new UserHandle(0);
+
+    public static UserHandle myUserHandle() {
+        return USER;
+    }
+
+    public static int myPid() {
+        return (int) ProcessHandle.current().pid();
+    }
+
+    public static int myUid() {
+        return 0;
+    }
+}
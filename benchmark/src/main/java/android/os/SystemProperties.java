@@ -0,0 +1,55 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package android.os;
+
+/**
+ * Stand-in backed by JVM system properties, so a benchmark can set one with -D.
+ */
+public class SystemProperties {
+
+    public static String get(String key) {
+        return System.getProperty(key, "");
+    }
+
+    public static String get(String key, String def) {
+        return System.getProperty(key, def);
+    }
+
+    public static int getInt(String key, int def) {
+        try {
+            return Integer.parseInt(get(key));
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    public static long getLong(String key, long def) {
+        try {
+            return Long.parseLong(get(key));
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    public static boolean getBoolean(String key, boolean def) {
+        String value = get(key);
+        return value.isEmpty() ? def : Boolean.parseBoolean(value);
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package android.os;
+
+public final class UserHandle {
+
+    private final int handle;
+
+    public UserHandle(int handle) {
+        this.handle = handle;
+    }
+
+    public int getIdentifier() {
+        return handle;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof UserHandle && ((UserHandle) o).handle == handle;
+    }
+
+    @Override
+    public int hashCode() {
+        return handle;
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package android.util;
+
+import java.util.HashMap;
+
+/**
+ * Stand-in backed by a HashMap. The real ArrayMap does binary searches over sorted hash
+ * arrays, so absolute numbers of code using it differ on a device.
+ */
+public class ArrayMap<K, V> extends HashMap<K, V> {
+
+    private static final long serialVersionUID = 1L;
+
+    public ArrayMap() {
+    }
+
+    public ArrayMap(int capacity) {
+        super(capacity);
+    }
+}
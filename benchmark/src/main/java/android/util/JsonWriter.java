@@ -0,0 +1,168 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package android.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stand-in which writes compact JSON and, like the real one, throws on a nesting problem, so
+ * that misuse of it in dump code fails on the host too.
+ */
+public final class JsonWriter {
+
+    private enum Scope {
+        EMPTY_ARRAY,
+        NONEMPTY_ARRAY,
+        EMPTY_OBJECT,
+        DANGLING_NAME,
+        NONEMPTY_OBJECT,
+        EMPTY_DOCUMENT,
+        NONEMPTY_DOCUMENT
+    }
+
+    private final Writer out;
+    private final List<Scope> stack = new ArrayList<>();
+
+    public JsonWriter(Writer out) {
+        this.out = out;
+        stack.add(Scope.EMPTY_DOCUMENT);
+    }
+
+    private Scope peek() {
+        return stack.get(stack.size() - 1);
+    }
+
+    private void replaceTop(Scope scope) {
+        stack.set(stack.size() - 1, scope);
+    }
+
+    private void beforeValue() throws IOException {
+        switch (peek()) {
+            case EMPTY_DOCUMENT:
+                replaceTop(Scope.NONEMPTY_DOCUMENT);
+                break;
+            case EMPTY_ARRAY:
+                replaceTop(Scope.NONEMPTY_ARRAY);
+                break;
+            case NONEMPTY_ARRAY:
+                out.write(',');
+                break;
+            case DANGLING_NAME:
+                replaceTop(Scope.NONEMPTY_OBJECT);
+                break;
+            default:
+                throw new IllegalStateException("Nesting problem: " + stack);
+        }
+    }
+
+    private JsonWriter open(Scope empty, char c) throws IOException {
+        beforeValue();
+        stack.add(empty);
+        out.write(c);
+        return this;
+    }
+
+    private JsonWriter close(Scope empty, Scope nonempty, char c) throws IOException {
+        Scope context = peek();
+        if (context != empty && context != nonempty) {
+            throw new IllegalStateException("Nesting problem: " + stack);
+        }
+        stack.remove(stack.size() - 1);
+        out.write(c);
+        return this;
+    }
+
+    private void string(String value) throws IOException {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.write('\\');
+                out.write(c);
+            } else if (c < 0x20) {
+                out.write(String.format("\\u%04x", (int) c));
+            } else {
+                out.write(c);
+            }
+        }
+        out.write('"');
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        return open(Scope.EMPTY_OBJECT, '{');
+    }
+
+    public JsonWriter endObject() throws IOException {
+        return close(Scope.EMPTY_OBJECT, Scope.NONEMPTY_OBJECT, '}');
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        return open(Scope.EMPTY_ARRAY, '[');
+    }
+
+    public JsonWriter endArray() throws IOException {
+        return close(Scope.EMPTY_ARRAY, Scope.NONEMPTY_ARRAY, ']');
+    }
+
+    public JsonWriter name(String name) throws IOException {
+        if (name == null) {
+            throw new NullPointerException("name == null");
+        }
+        Scope context = peek();
+        if (context == Scope.NONEMPTY_OBJECT) {
+            out.write(',');
+        } else if (context != Scope.EMPTY_OBJECT) {
+            throw new IllegalStateException("Nesting problem: " + stack);
+        }
+        replaceTop(Scope.DANGLING_NAME);
+        string(name);
+        out.write(':');
+        return this;
+    }
+
+    public JsonWriter value(String value) throws IOException {
+        beforeValue();
+        if (value == null) {
+            out.write("null");
+        } else {
+            string(value);
+        }
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        beforeValue();
+        out.write(value ? "true" : "false");
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        beforeValue();
+        out.write(Long.toString(value));
+        return this;
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+}
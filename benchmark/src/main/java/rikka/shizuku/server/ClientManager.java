@@ -0,0 +1,95 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package rikka.shizuku.server;
+
+import android.os.RemoteException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import moe.shizuku.server.IShizukuApplication;
+
+/**
+ * Stand-in mirroring server-shared of Shizuku API: a synchronized list scanned linearly,
+ * clients are removed when their binder dies.
+ */
+public class ClientManager<ConfigMgr extends ConfigManager> {
+
+    private final ConfigMgr configManager;
+    private final List<ClientRecord> clientRecords = Collections.synchronizedList(new ArrayList<>());
+
+    public ClientManager(ConfigMgr configManager) {
+        this.configManager = configManager;
+    }
+
+    public ConfigMgr getConfigManager() {
+        return configManager;
+    }
+
+    public List<ClientRecord> findClients(int uid) {
+        synchronized (clientRecords) {
+            List<ClientRecord> res = new ArrayList<>();
+            for (ClientRecord clientRecord : clientRecords) {
+                if (clientRecord.uid == uid) {
+                    res.add(clientRecord);
+                }
+            }
+            return res;
+        }
+    }
+
+    public ClientRecord findClient(int uid, int pid) {
+        synchronized (clientRecords) {
+            for (ClientRecord clientRecord : clientRecords) {
+                if (clientRecord.pid == pid && clientRecord.uid == uid) {
+                    return clientRecord;
+                }
+            }
+        }
+        return null;
+    }
+
+    public ClientRecord requireClient(int callingUid, int callingPid) {
+        ClientRecord clientRecord = findClient(callingUid, callingPid);
+        if (clientRecord == null) {
+            throw new IllegalStateException("Not an attached client");
+        }
+        return clientRecord;
+    }
+
+    public ClientRecord addClient(int uid, int pid, IShizukuApplication client, String packageName, int apiVersion) {
+        ClientRecord clientRecord = new ClientRecord(uid, pid, client, packageName, apiVersion);
+
+        ConfigPackageEntry entry = configManager.find(uid);
+        if (entry != null && entry.isAllowed()) {
+            clientRecord.allowed = true;
+        }
+
+        try {
+            client.asBinder().linkToDeath(() -> clientRecords.remove(clientRecord), 0);
+        } catch (RemoteException e) {
+            return null;
+        }
+
+        clientRecords.add(clientRecord);
+        return clientRecord;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package rikka.shizuku.server;
+
+import moe.shizuku.server.IShizukuApplication;
+
+/**
+ * Stand-in mirroring server-shared of Shizuku API.
+ */
+public class ClientRecord {
+
+    public final int uid;
+    public final int pid;
+    public final IShizukuApplication client;
+    public final String packageName;
+    public final int apiVersion;
+    public boolean allowed;
+
+    public ClientRecord(int uid, int pid, IShizukuApplication client, String packageName, int apiVersion) {
+        this.uid = uid;
+        this.pid = pid;
+        this.client = client;
+        this.packageName = packageName;
+        this.apiVersion = apiVersion;
+        this.allowed = false;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package rikka.sui.loadtest;
+
+import java.util.Locale;
+
+/**
+ * Runs the load generator against {@link LocalServer} on the host JVM:
+ * <pre>
+ * ./gradlew :benchmark:loadTest --args="--clients 32 --server-threads 15 --remote-us 200"
+ * </pre>
+ * The numbers are only comparable to each other, use {@code rikka.sui.loadtest.Main} on a device for real ones.
+ */
+public class LocalMain {
+
+    private static void printUsage() {
+        System.out.println("usage: loadTest [options]\n" +
+                LoadTest.Options.usage() +
+                "  --uids N             distinct uids the clients are spread over (default clients)\n" +
+                "  --server-threads N   binder threads of the server (default 16)\n" +
+                "  --remote-us N        time a transact spends in the system service (default 100)");
+    }
+
+    private static int getExtra(LoadTest.Options options, String name, int defaultValue) {
+        int index = options.extras.indexOf(name);
+        if (index != -1 && index + 1 < options.extras.size()) {
+            return Integer.parseInt(options.extras.get(index + 1));
+        }
+        return defaultValue;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && ("-h".equals(args[0]) || "--help".equals(args[0]))) {
+            printUsage();
+            return;
+        }
+
+        LoadTest.Options options = LoadTest.Options.parse(args);
+        int uids = Math.max(1, getExtra(options, "--uids", options.clients));
+        int threads = getExtra(options, "--server-threads", 16);
+        int remoteMicros = getExtra(options, "--remote-us", 100);
+
+        LocalServer server = new LocalServer(threads, remoteMicros, uids);
+        long cpuStart = server.getCpuTimeMillis();
+        LoadTest.Result result = new LoadTest(options,
+                client -> new LocalTarget(server, LocalServer.uid(client % uids), 20000 + client, options.batchSize))
+                .run(0, options.clients);
+        long cpuEnd = server.getCpuTimeMillis();
+        server.shutdown();
+
+        System.out.printf(Locale.ENGLISH, "clients=%d uids=%d duration=%.1fs warmup=%.1fs rate=%s%n",
+                options.clients, uids, options.durationMillis / 1000.0, options.warmupMillis / 1000.0,
+                options.rate > 0 ? options.rate + "/s per client" : "closed loop");
+        result.print(System.out);
+        System.out.printf(Locale.ENGLISH, "server: %d binder threads, peak in-flight %d, cpu %d ms (incl. warmup), rss %d kB (incl. clients)%n",
+                server.getThreadCount(), server.getPeakInFlight(), cpuEnd - cpuStart, LocalServer.getRssKb());
+    }
+}
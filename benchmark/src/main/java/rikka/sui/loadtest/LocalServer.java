@@ -0,0 +1,191 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package rikka.sui.loadtest;
+
+import android.os.Binder;
+import android.os.IBinder;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import moe.shizuku.server.IShizukuApplication;
+import rikka.sui.server.SuiClientManager;
+import rikka.sui.server.SuiConfig;
+import rikka.sui.server.SuiConfigManager;
+
+/**
+ * Stand-in of the root server on the host: the real config and client registries behind a
+ * fixed pool of "binder threads", with calls to system services simulated by parking the
+ * thread for a fixed time.
+ */
+public class LocalServer {
+
+    private static class Application implements IShizukuApplication {
+
+        private final IBinder binder = new Binder();
+
+        @Override
+        public IBinder asBinder() {
+            return binder;
+        }
+    }
+
+    private final SuiConfigManager configManager = new SuiConfigManager();
+    private final SuiClientManager clientManager = new SuiClientManager(configManager);
+    private final ThreadPoolExecutor binderThreads;
+    private final List<Thread> threads = new CopyOnWriteArrayList<>();
+    private final long remoteNanos;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+
+    public LocalServer(int threadCount, long remoteMicros, int uids) {
+        this.remoteNanos = TimeUnit.MICROSECONDS.toNanos(remoteMicros);
+        this.binderThreads = new ThreadPoolExecutor(threadCount, threadCount, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "Binder:" + threads.size());
+            thread.setDaemon(true);
+            threads.add(thread);
+            return thread;
+        });
+        binderThreads.prestartAllCoreThreads();
+
+        for (int i = 0; i < uids; i++) {
+            configManager.update(uid(i), SuiConfig.MASK_PERMISSION, SuiConfig.FLAG_ALLOWED);
+        }
+    }
+
+    public static int uid(int i) {
+        return 10000 + i;
+    }
+
+    private <T> T transact(Callable<T> call) throws Exception {
+        int n = inFlight.incrementAndGet();
+        peakInFlight.accumulateAndGet(n, Math::max);
+        try {
+            return binderThreads.submit(call).get();
+        } catch (ExecutionException e) {
+            throw (Exception) e.getCause();
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    public void attach(int uid, int pid) throws Exception {
+        transact(() -> {
+            synchronized (this) {
+                if (clientManager.findClient(uid, pid) != null) {
+                    throw new IllegalStateException("Client (uid=" + uid + ", pid=" + pid + ") has already attached");
+                }
+                clientManager.addClient(uid, pid, new Application(), "com.example.app" + uid, 13);
+            }
+            return null;
+        });
+    }
+
+    public void call(int uid, int pid, LoadTarget.Op op, int batchSize) throws Exception {
+        transact(() -> {
+            if (clientManager.findClient(uid, pid) == null) {
+                throw new SecurityException("not attached");
+            }
+            switch (op) {
+                case TRANSACT_REMOTE: {
+                    SuiConfig.PackageEntry entry = configManager.find(uid);
+                    if (entry == null || !entry.isAllowed()) {
+                        throw new SecurityException("transactRemote not allowed");
+                    }
+                    LockSupport.parkNanos(remoteNanos);
+                    break;
+                }
+                case BATCH: {
+                    SuiConfig.PackageEntry entry = configManager.find(uid);
+                    if (entry == null || !entry.isAllowed()) {
+                        throw new SecurityException("transactRemote not allowed");
+                    }
+                    for (int i = 0; i < batchSize; i++) {
+                        LockSupport.parkNanos(remoteNanos);
+                    }
+                    break;
+                }
+                case REQUEST_PERMISSION:
+                    configManager.find(uid);
+                    clientManager.findClients(uid);
+                    break;
+                default:
+                    break;
+            }
+            return null;
+        });
+    }
+
+    public int getThreadCount() {
+        return binderThreads.getCorePoolSize();
+    }
+
+    public int getPeakInFlight() {
+        return peakInFlight.get();
+    }
+
+    /**
+     * CPU time used by the binder threads in milliseconds.
+     */
+    public long getCpuTimeMillis() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (Thread thread : threads) {
+            long time = bean.getThreadCpuTime(thread.getId());
+            if (time > 0) {
+                total += time;
+            }
+        }
+        return TimeUnit.NANOSECONDS.toMillis(total);
+    }
+
+    /**
+     * VmRSS of this JVM in kB, which includes the clients, or -1 if not available.
+     */
+    public static long getRssKb() {
+        try (BufferedReader reader = new BufferedReader(new FileReader("/proc/self/status"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.substring("VmRSS:".length(), line.length() - "kB".length()).trim());
+                }
+            }
+        } catch (IOException | NumberFormatException ignored) {
+        }
+        return -1;
+    }
+
+    public void shutdown() {
+        binderThreads.shutdownNow();
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package rikka.sui.loadtest;
+
+/**
+ * A client of {@link LocalServer}, one per simulated app process.
+ */
+public class LocalTarget implements LoadTarget {
+
+    private final LocalServer server;
+    private final int uid;
+    private final int pid;
+    private final int batchSize;
+
+    public LocalTarget(LocalServer server, int uid, int pid, int batchSize) {
+        this.server = server;
+        this.uid = uid;
+        this.pid = pid;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void attach() throws Exception {
+        server.attach(uid, pid);
+    }
+
+    @Override
+    public void call(Op op) throws Exception {
+        server.call(uid, pid, op, batchSize);
+    }
+}
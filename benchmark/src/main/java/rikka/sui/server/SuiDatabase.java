@@ -0,0 +1,44 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package rikka.sui.server;
+
+import java.util.List;
+
+/**
+ * Stand-in without SQLite, the config starts empty and writes go nowhere.
+ */
+public class SuiDatabase {
+
+    public static SuiConfig readConfig() {
+        return null;
+    }
+
+    public static void updateUid(int uid, int flags) {
+    }
+
+    public static void updateLimits(int uid, int flags, int rateLimit, int weight) {
+    }
+
+    public static void removeUid(int uid) {
+    }
+
+    public static void removeUids(List<Integer> uids) {
+    }
+}
@@ -4,10 +4,18 @@
     public static void main(java.lang.String[]);
 }
 
+-keep class rikka.sui.server.Dump {
+    public static void main(java.lang.String[]);
+}
+
 -keep class rikka.sui.server.userservice.Starter {
     public static void main(java.lang.String[]);
 }
 
+-keep class rikka.sui.server.userservice.Zygote {
+    public static void main(java.lang.String[]);
+}
+
 -keep class rikka.sui.systemserver.SystemProcess {
     public static void main(java.lang.String[]);
     public static boolean execTransact(android.os.Binder, int, long, long, int);
@@ -15,6 +23,7 @@
 
 -keep class rikka.sui.manager.ManagerProcess {
     public static void main(java.lang.String[]);
+    public static boolean execTransact(android.os.Binder, int, long, long, int);
 }
 
 -keep class rikka.sui.settings.SettingsProcess {
@@ -34,6 +43,10 @@
     public static void main(java.lang.String[]);
 }
 
+-keep class rikka.sui.loadtest.Main {
+    public static void main(java.lang.String[]);
+}
+
 -keepnames class * implements android.os.Parcelable
 
 -keepclassmembers class * implements android.os.Parcelable {
@@ -15,6 +15,7 @@
 #include <fcntl.h>
 #include <cinttypes>
 #include <socket.h>
+#include <trace.h>
 #include <sys/system_properties.h>
 #include "system_server.h"
 #include "main.h"
@@ -40,6 +41,8 @@ public:
     }
 
     void preAppSpecialize(zygisk::AppSpecializeArgs *args) override {
+        SCOPED_TRACE_RELEASE("Sui:preAppSpecialize");
+
         char process_name[kProcessNameMax]{0};
         char app_data_dir[PATH_MAX]{0};
 
@@ -87,6 +90,8 @@ public:
     }
 
     void preServerSpecialize(zygisk::ServerSpecializeArgs *args) override {
+        SCOPED_TRACE_RELEASE("Sui:preServerSpecialize");
+
         LOGD("preServerSpecialize");
 
         InitCompanion(true, args->uid);
@@ -113,6 +118,8 @@ private:
     Dex *dex = nullptr;
 
     void InitCompanion(bool is_system_server, int uid, const char *process_name = nullptr) {
+        SCOPED_TRACE("Sui:InitCompanion");
+
         auto companion = api_->connectCompanion();
         if (companion == -1) {
             LOGE("Zygote: failed to connect to companion");
@@ -44,10 +44,13 @@
 #include "bridge_service.h"
 #include "binder_hook.h"
 #include "config.h"
+#include "trace.h"
 
 namespace Manager {
 
     static jclass mainClass = nullptr;
+    static jmethodID my_execTransactMethodID;
+    static jint bindApplicationTransactionCode = -1;
 
     static bool installDex(JNIEnv *env, const char *appDataDir, Dex *dexFile) {
         if (android::GetApiLevel() < 26) {
@@ -73,6 +76,14 @@ namespace Manager {
             return false;
         }
 
+        my_execTransactMethodID = env->GetStaticMethodID(mainClass, "execTransact", "(Landroid/os/Binder;IJJI)Z");
+        if (!my_execTransactMethodID) {
+            LOGE("unable to find execTransact");
+            env->ExceptionDescribe();
+            env->ExceptionClear();
+            return false;
+        }
+
         auto args = env->NewObjectArray(0, env->FindClass("java/lang/String"), nullptr);
 
         env->CallStaticVoidMethod(mainClass, mainMethod, args);
@@ -86,7 +97,33 @@ namespace Manager {
         return true;
     }
 
+    /*
+     * return true = consumed
+     */
+    static bool ExecTransact(jboolean *res, JNIEnv *env, jobject obj, va_list args) {
+        jint code;
+        jlong dataObj;
+        jlong replyObj;
+        jint flags;
+
+        va_list copy;
+        va_copy(copy, args);
+        code = va_arg(copy, jint);
+        dataObj = va_arg(copy, jlong);
+        replyObj = va_arg(copy, jlong);
+        flags = va_arg(copy, jint);
+        va_end(copy);
+
+        if (bindApplicationTransactionCode != -1 && code == bindApplicationTransactionCode) {
+            *res = env->CallStaticBooleanMethod(mainClass, my_execTransactMethodID, obj, code, dataObj, replyObj, flags);
+            if (*res) return true;
+        }
+
+        return false;
+    }
+
     void main(JNIEnv *env, const char *appDataDir, Dex *dexFile) {
+        SCOPED_TRACE("Sui:Manager::main");
         if (!dexFile->valid()) {
             LOGE("no dex");
             return;
@@ -102,5 +139,26 @@ namespace Manager {
         }
 
         LOGV("install dex finished");
+
+        // Hook bindApplication to know when Application is created, so that the manager can
+        // attach to the server at once. ManagerProcess falls back to polling without it.
+        if (android::GetApiLevel() >= 26) {
+            jclass applicationThreadClass;
+            jfieldID bindApplicationId;
+            JavaVM *javaVm;
+
+            applicationThreadClass = env->FindClass("android/app/IApplicationThread$Stub");
+            if (!applicationThreadClass) goto clean;
+            bindApplicationId = env->GetStaticFieldID(applicationThreadClass, "TRANSACTION_bindApplication", "I");
+            if (!bindApplicationId) goto clean;
+            bindApplicationTransactionCode = env->GetStaticIntField(applicationThreadClass, bindApplicationId);
+
+            env->GetJavaVM(&javaVm);
+
+            BinderHook::Install(javaVm, env, ExecTransact);
+
+            clean:
+            env->ExceptionClear();
+        }
     }
 }
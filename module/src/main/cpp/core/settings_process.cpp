@@ -44,6 +44,7 @@
 #include "bridge_service.h"
 #include "binder_hook.h"
 #include "config.h"
+#include "trace.h"
 
 namespace Settings {
 
@@ -122,6 +123,7 @@ namespace Settings {
     }
 
     void main(JNIEnv *env, const char *appDataDir, Dex *dexFile) {
+        SCOPED_TRACE("Sui:Settings::main");
         if (android::GetApiLevel() <= 26) {
             return;
         }
@@ -43,6 +43,7 @@
 #include "bridge_service.h"
 #include "binder_hook.h"
 #include "config.h"
+#include "trace.h"
 
 namespace SystemServer {
 
@@ -122,6 +123,8 @@ namespace SystemServer {
     }
 
     void main(JNIEnv *env, Dex *dexFile) {
+        SCOPED_TRACE("Sui:SystemServer::main");
+
         if (!dexFile->valid()) {
             LOGE("no dex");
             return;
@@ -27,6 +27,7 @@
 #include "dex_file.h"
 #include "misc.h"
 #include "logging.h"
+#include "trace.h"
 
 Buffer::Buffer(int fd, size_t size) {
     uint8_t *addr;
@@ -125,6 +126,7 @@ Dex::~Dex() {
 }
 
 void Dex::createClassLoader(JNIEnv *env) {
+    SCOPED_TRACE("Sui:createClassLoader");
     if (android::GetApiLevel() >= 26) {
         createInMemoryDexClassLoader(env);
     } else {
@@ -0,0 +1,66 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+#ifndef _TRACE_H
+#define _TRACE_H
+
+/*
+ * Minimal atrace, writes sections to trace_marker when the "app" tag is enabled (for example,
+ * "atrace -a '*'" or atrace_apps in a Perfetto config). libcutils is not used because its tag
+ * state is per process and not initialized in every process Sui runs in.
+ */
+
+bool trace_enabled();
+void trace_begin(const char *name);
+void trace_end();
+
+/*
+ * Close the trace_marker fd, which is otherwise kept open. Zygisk closes the fds opened in the
+ * pre-specialize callbacks, so the number must not be kept past them.
+ */
+void trace_release();
+
+class ScopedTrace {
+
+public:
+    explicit ScopedTrace(const char *name, bool release = false) : enabled_(trace_enabled()), release_(release) {
+        if (enabled_) trace_begin(name);
+    }
+
+    ~ScopedTrace() {
+        if (enabled_) trace_end();
+        if (release_) trace_release();
+    }
+
+    ScopedTrace(const ScopedTrace &) = delete;
+
+    ScopedTrace &operator=(const ScopedTrace &) = delete;
+
+private:
+    bool enabled_;
+    bool release_;
+};
+
+#define TRACE_CONCAT_(a, b) a##b
+#define TRACE_CONCAT(a, b) TRACE_CONCAT_(a, b)
+#define SCOPED_TRACE(name) ScopedTrace TRACE_CONCAT(__trace_, __LINE__)(name)
+// For the pre-specialize callbacks of Zygisk, see trace_release()
+#define SCOPED_TRACE_RELEASE(name) ScopedTrace TRACE_CONCAT(__trace_, __LINE__)(name, true)
+
+#endif // _TRACE_H
@@ -0,0 +1,100 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+#include <cstdio>
+#include <cstdint>
+#include <cstdlib>
+#include <fcntl.h>
+#include <unistd.h>
+#include <atomic>
+#include <sys/system_properties.h>
+#include "trace.h"
+
+// ATRACE_TAG_APP in cutils/trace.h
+static constexpr uint64_t kTraceTagApp = 1 << 12;
+
+static std::atomic<const prop_info *> tags_prop{nullptr};
+static std::atomic<uint32_t> tags_serial{UINT32_MAX};
+static std::atomic<bool> enabled{false};
+static std::atomic<int> marker_fd{-1};
+
+static void read_tags(const prop_info *pi, uint32_t serial) {
+    char value[PROP_VALUE_MAX]{0};
+    __system_property_read(pi, nullptr, value);
+    auto tags = strtoull(value, nullptr, 0);
+    enabled.store((tags & kTraceTagApp) != 0, std::memory_order_relaxed);
+    tags_serial.store(serial, std::memory_order_relaxed);
+}
+
+bool trace_enabled() {
+    auto pi = tags_prop.load(std::memory_order_relaxed);
+    if (!pi) {
+        pi = __system_property_find("debug.atrace.tags.enableflags");
+        if (!pi) return false;
+        tags_prop.store(pi, std::memory_order_relaxed);
+    }
+
+    // Reading the serial is a single load, the value is only parsed when it changes
+    auto serial = __system_property_serial(pi);
+    if (serial != tags_serial.load(std::memory_order_relaxed)) {
+        read_tags(pi, serial);
+    }
+    return enabled.load(std::memory_order_relaxed);
+}
+
+static int get_marker_fd() {
+    auto fd = marker_fd.load(std::memory_order_relaxed);
+    if (fd != -1) return fd;
+
+    fd = open("/sys/kernel/tracing/trace_marker", O_WRONLY | O_CLOEXEC);
+    if (fd == -1) {
+        fd = open("/sys/kernel/debug/tracing/trace_marker", O_WRONLY | O_CLOEXEC);
+    }
+    if (fd == -1) return -1;
+
+    int expected = -1;
+    if (!marker_fd.compare_exchange_strong(expected, fd)) {
+        close(fd);
+        fd = expected;
+    }
+    return fd;
+}
+
+void trace_begin(const char *name) {
+    auto fd = get_marker_fd();
+    if (fd == -1) return;
+
+    char buf[256];
+    auto len = snprintf(buf, sizeof(buf), "B|%d|%s", getpid(), name);
+    if (len > 0) write(fd, buf, len < (int) sizeof(buf) ? len : sizeof(buf) - 1);
+}
+
+void trace_end() {
+    auto fd = get_marker_fd();
+    if (fd == -1) return;
+
+    char buf[32];
+    auto len = snprintf(buf, sizeof(buf), "E|%d", getpid());
+    if (len > 0) write(fd, buf, len);
+}
+
+void trace_release() {
+    auto fd = marker_fd.exchange(-1, std::memory_order_relaxed);
+    if (fd != -1) close(fd);
+}
@@ -0,0 +1,124 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package rikka.sui.loadtest;
+
+import java.util.Locale;
+
+/**
+ * Histogram of latencies in microseconds with log-linear buckets: exact below 32us, then 16
+ * buckets per power of two, so percentiles are within about 6%.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 16;
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long max;
+
+    private static int index(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) Math.max(0, value);
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int shift = msb - 4;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    private static long lowerBound(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+    }
+
+    public void record(long micros) {
+        counts[index(micros)]++;
+        count++;
+        max = Math.max(max, micros);
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        max = Math.max(max, other.max);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public long getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(lowerBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Encode as "index:count" pairs of the non-empty buckets, used to pass histograms from
+     * worker processes to the parent.
+     */
+    public String encode() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(max);
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts[i] != 0) {
+                sb.append(' ').append(i).append(':').append(counts[i]);
+            }
+        }
+        return sb.toString();
+    }
+
+    public static LatencyHistogram decode(String s) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        String[] parts = s.trim().split(" ");
+        histogram.max = Long.parseLong(parts[0]);
+        for (int i = 1; i < parts.length; i++) {
+            int colon = parts[i].indexOf(':');
+            int index = Integer.parseInt(parts[i].substring(0, colon));
+            long n = Long.parseLong(parts[i].substring(colon + 1));
+            histogram.counts[index] += n;
+            histogram.count += n;
+        }
+        return histogram;
+    }
+
+    public String format() {
+        return String.format(Locale.ENGLISH, "p50=%dus p90=%dus p99=%dus p99.9=%dus max=%dus",
+                getPercentile(50), getPercentile(90), getPercentile(99), getPercentile(99.9), max);
+    }
+}
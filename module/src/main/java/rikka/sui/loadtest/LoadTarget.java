@@ -0,0 +1,59 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package rikka.sui.loadtest;
+
+/**
+ * One simulated client of the server.
+ */
+public interface LoadTarget {
+
+    enum Op {
+        /** A plain call answered by the server itself. */
+        GET_VERSION("version"),
+        /** transactRemote to a system service. */
+        TRANSACT_REMOTE("transact"),
+        /** requestPermission, coalesced per uid by the server. */
+        REQUEST_PERMISSION("permission"),
+        /** transactRemoteBatch of {@link LoadTest.Options#batchSize} transactRemote calls. */
+        BATCH("batch");
+
+        public final String key;
+
+        Op(String key) {
+            this.key = key;
+        }
+
+        public static Op of(String key) {
+            for (Op op : values()) {
+                if (op.key.equals(key)) {
+                    return op;
+                }
+            }
+            throw new IllegalArgumentException("unknown op " + key);
+        }
+    }
+
+    void attach() throws Exception;
+
+    void call(Op op) throws Exception;
+
+    default void close() {
+    }
+}
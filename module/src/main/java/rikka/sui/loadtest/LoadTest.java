@@ -0,0 +1,347 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package rikka.sui.loadtest;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs simulated clients against a {@link LoadTarget} and collects their latencies.
+ * <p>
+ * Each client attaches once, then issues calls picked by weight from the mix, either as
+ * fast as possible or at a fixed rate. With a rate, latency is measured from the time a
+ * call is scheduled rather than sent, so a stalled server is not hidden by clients that
+ * slow down with it.
+ */
+public class LoadTest {
+
+    public interface TargetFactory {
+
+        LoadTarget create(int client) throws Exception;
+    }
+
+    public static class Options {
+
+        public int clients = 8;
+        public long durationMillis = 10000;
+        public long warmupMillis = 2000;
+        public double rate = 0;
+        public int batchSize = 10;
+        /** Wall clock time the clients start calling at, 0 to start right after attaching. */
+        public long startAtMillis = 0;
+        public final Map<LoadTarget.Op, Integer> mix = new EnumMap<>(LoadTarget.Op.class);
+        public final List<String> extras = new ArrayList<>();
+
+        public Options() {
+            mix.put(LoadTarget.Op.GET_VERSION, 20);
+            mix.put(LoadTarget.Op.TRANSACT_REMOTE, 80);
+        }
+
+        public static String usage() {
+            return "  --clients N          simulated clients (default 8)\n" +
+                    "  --duration S         measured seconds (default 10)\n" +
+                    "  --warmup S           seconds before measuring (default 2)\n" +
+                    "  --rate R             calls per second per client, 0 for closed loop (default 0)\n" +
+                    "  --mix op=w,...       weights of version, transact, permission and batch (default version=20,transact=80)\n" +
+                    "  --batch N            calls in each batch (default 10)\n";
+        }
+
+        /**
+         * Parse the common options, the others are kept in {@link #extras} in order.
+         */
+        public static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                String value = i + 1 < args.length ? args[i + 1] : null;
+                switch (arg) {
+                    case "--clients":
+                        options.clients = Integer.parseInt(value);
+                        i++;
+                        break;
+                    case "--duration":
+                        options.durationMillis = (long) (Double.parseDouble(value) * 1000);
+                        i++;
+                        break;
+                    case "--warmup":
+                        options.warmupMillis = (long) (Double.parseDouble(value) * 1000);
+                        i++;
+                        break;
+                    case "--start-at":
+                        options.startAtMillis = Long.parseLong(value);
+                        i++;
+                        break;
+                    case "--rate":
+                        options.rate = Double.parseDouble(value);
+                        i++;
+                        break;
+                    case "--batch":
+                        options.batchSize = Integer.parseInt(value);
+                        i++;
+                        break;
+                    case "--mix":
+                        options.mix.clear();
+                        for (String part : value.split(",")) {
+                            String[] kv = part.split("=");
+                            options.mix.put(LoadTarget.Op.of(kv[0]), Integer.parseInt(kv[1]));
+                        }
+                        i++;
+                        break;
+                    default:
+                        options.extras.add(arg);
+                        break;
+                }
+            }
+            return options;
+        }
+
+        LoadTarget.Op[] table() {
+            List<LoadTarget.Op> table = new ArrayList<>();
+            for (Map.Entry<LoadTarget.Op, Integer> entry : mix.entrySet()) {
+                for (int i = 0; i < entry.getValue(); i++) {
+                    table.add(entry.getKey());
+                }
+            }
+            if (table.isEmpty()) {
+                throw new IllegalArgumentException("empty mix");
+            }
+            return table.toArray(new LoadTarget.Op[0]);
+        }
+    }
+
+    public static class Result {
+
+        public final Map<LoadTarget.Op, LatencyHistogram> latencies = new EnumMap<>(LoadTarget.Op.class);
+        public final Map<LoadTarget.Op, Long> errors = new EnumMap<>(LoadTarget.Op.class);
+        public final LatencyHistogram attach = new LatencyHistogram();
+        public long attachErrors;
+        public long elapsedMillis;
+
+        LatencyHistogram latency(LoadTarget.Op op) {
+            LatencyHistogram histogram = latencies.get(op);
+            if (histogram == null) {
+                histogram = new LatencyHistogram();
+                latencies.put(op, histogram);
+            }
+            return histogram;
+        }
+
+        void error(LoadTarget.Op op) {
+            Long n = errors.get(op);
+            errors.put(op, n != null ? n + 1 : 1);
+        }
+
+        public synchronized void add(Result other) {
+            for (Map.Entry<LoadTarget.Op, LatencyHistogram> entry : other.latencies.entrySet()) {
+                latency(entry.getKey()).add(entry.getValue());
+            }
+            for (Map.Entry<LoadTarget.Op, Long> entry : other.errors.entrySet()) {
+                Long n = errors.get(entry.getKey());
+                errors.put(entry.getKey(), (n != null ? n : 0) + entry.getValue());
+            }
+            attach.add(other.attach);
+            attachErrors += other.attachErrors;
+            elapsedMillis = Math.max(elapsedMillis, other.elapsedMillis);
+        }
+
+        /**
+         * Write in the line format read by {@link #parse(String, Result)}.
+         */
+        public void write(PrintStream out) {
+            out.println("R elapsed " + elapsedMillis);
+            out.println("R attach_errors " + attachErrors);
+            out.println("H attach " + attach.encode());
+            for (Map.Entry<LoadTarget.Op, LatencyHistogram> entry : latencies.entrySet()) {
+                out.println("H " + entry.getKey().key + " " + entry.getValue().encode());
+            }
+            for (Map.Entry<LoadTarget.Op, Long> entry : errors.entrySet()) {
+                out.println("E " + entry.getKey().key + " " + entry.getValue());
+            }
+        }
+
+        /**
+         * Parse a line written by {@link #write(PrintStream)} into result, returns false if
+         * it's not one.
+         */
+        public static boolean parse(String line, Result result) {
+            String[] parts = line.split(" ", 3);
+            if (parts.length < 3) {
+                return false;
+            }
+            synchronized (result) {
+                switch (parts[0]) {
+                    case "R":
+                        if ("elapsed".equals(parts[1])) {
+                            result.elapsedMillis = Math.max(result.elapsedMillis, Long.parseLong(parts[2]));
+                        } else if ("attach_errors".equals(parts[1])) {
+                            result.attachErrors += Long.parseLong(parts[2]);
+                        }
+                        return true;
+                    case "H":
+                        if ("attach".equals(parts[1])) {
+                            result.attach.add(LatencyHistogram.decode(parts[2]));
+                        } else {
+                            result.latency(LoadTarget.Op.of(parts[1])).add(LatencyHistogram.decode(parts[2]));
+                        }
+                        return true;
+                    case "E":
+                        LoadTarget.Op op = LoadTarget.Op.of(parts[1]);
+                        Long n = result.errors.get(op);
+                        result.errors.put(op, (n != null ? n : 0) + Long.parseLong(parts[2]));
+                        return true;
+                    default:
+                        return false;
+                }
+            }
+        }
+
+        public void print(PrintStream out) {
+            double seconds = Math.max(1, elapsedMillis) / 1000.0;
+            long total = 0;
+            for (LatencyHistogram histogram : latencies.values()) {
+                total += histogram.getCount();
+            }
+            out.printf(Locale.ENGLISH, "attach: ok=%d errors=%d %s%n", attach.getCount(), attachErrors, attach.format());
+            out.printf(Locale.ENGLISH, "total: %d calls in %.1f s, %.0f calls/s%n", total, seconds, total / seconds);
+            for (Map.Entry<LoadTarget.Op, LatencyHistogram> entry : latencies.entrySet()) {
+                LatencyHistogram histogram = entry.getValue();
+                Long errorCount = errors.get(entry.getKey());
+                out.printf(Locale.ENGLISH, "%-12s %.0f calls/s, errors=%d, %s%n", entry.getKey().key + ":",
+                        histogram.getCount() / seconds, errorCount != null ? errorCount : 0, histogram.format());
+            }
+            for (Map.Entry<LoadTarget.Op, Long> entry : errors.entrySet()) {
+                if (!latencies.containsKey(entry.getKey())) {
+                    out.printf(Locale.ENGLISH, "%-12s errors=%d%n", entry.getKey().key + ":", entry.getValue());
+                }
+            }
+        }
+    }
+
+    private final Options options;
+    private final TargetFactory factory;
+
+    public LoadTest(Options options, TargetFactory factory) {
+        this.options = options;
+        this.factory = factory;
+    }
+
+    /**
+     * Run the clients in threads of this process and wait for them.
+     *
+     * @param firstClient index of the first client, passed to the factory
+     */
+    public Result run(int firstClient, int clients) throws InterruptedException {
+        Result result = new Result();
+        LoadTarget.Op[] table = options.table();
+        CountDownLatch done = new CountDownLatch(clients);
+        long start = System.nanoTime();
+        if (options.startAtMillis > 0) {
+            start += TimeUnit.MILLISECONDS.toNanos(Math.max(0, options.startAtMillis - System.currentTimeMillis()));
+        }
+        long callStart = start;
+        long measureStart = start + TimeUnit.MILLISECONDS.toNanos(options.warmupMillis);
+        long end = measureStart + TimeUnit.MILLISECONDS.toNanos(options.durationMillis);
+
+        for (int i = 0; i < clients; i++) {
+            int client = firstClient + i;
+            Thread thread = new Thread(() -> {
+                try {
+                    result.add(runClient(client, table, callStart, measureStart, end));
+                } finally {
+                    done.countDown();
+                }
+            }, "LoadClient-" + client);
+            thread.start();
+        }
+
+        done.await();
+        result.elapsedMillis = options.durationMillis;
+        return result;
+    }
+
+    private Result runClient(int client, LoadTarget.Op[] table, long start, long measureStart, long end) {
+        Result result = new Result();
+        Random random = new Random(client);
+
+        LoadTarget target;
+        long attachStart = System.nanoTime();
+        try {
+            target = factory.create(client);
+            target.attach();
+            result.attach.record((System.nanoTime() - attachStart) / 1000);
+        } catch (Throwable e) {
+            result.attachErrors++;
+            System.err.println("client " + client + ": attach failed: " + e);
+            return result;
+        }
+
+        long interval = options.rate > 0 ? (long) (1e9 / options.rate) : 0;
+        // Spread the first calls of rate-limited clients over one interval
+        long next = start + (interval > 0 ? (long) (random.nextDouble() * interval) : 0);
+
+        try {
+            long wait = start - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            while (true) {
+                if (interval > 0) {
+                    long now = System.nanoTime();
+                    if (next > now) {
+                        TimeUnit.NANOSECONDS.sleep(next - now);
+                    }
+                }
+                long scheduled = interval > 0 ? next : System.nanoTime();
+                if (scheduled >= end) {
+                    break;
+                }
+
+                LoadTarget.Op op = table[random.nextInt(table.length)];
+                boolean ok = true;
+                try {
+                    target.call(op);
+                } catch (Throwable e) {
+                    ok = false;
+                }
+                long finished = System.nanoTime();
+
+                if (scheduled >= measureStart) {
+                    if (ok) {
+                        result.latency(op).record((finished - scheduled) / 1000);
+                    } else {
+                        result.error(op);
+                    }
+                }
+                next += interval;
+            }
+        } catch (InterruptedException ignored) {
+        } finally {
+            target.close();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package rikka.sui.loadtest;
+
+import android.system.Os;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import rikka.sui.util.OsUtils;
+
+/**
+ * Load generator for the root server, run under app_process as shell:
+ * <pre>
+ * app_process -Djava.class.path=/data/local/tmp/sui.dex /system/bin rikka.sui.loadtest.Main [options]
+ * </pre>
+ * Since the server allows one attach per process, each client is a worker process started
+ * by this one, which collects their latencies and samples the server's CPU and RSS.
+ */
+public class Main {
+
+    private static final String WORKER = "--worker";
+
+    private static void printUsage() {
+        System.out.println("usage: sui_loadtest [options]\n" +
+                LoadTest.Options.usage() +
+                "  --service NAME       system service called by transact (default package)\n" +
+                "  --package NAME       package to attach as (default com.android.shell for shell)\n" +
+                "  --server-pid PID     pid of the server (default found by name)");
+    }
+
+    private static String getExtra(LoadTest.Options options, String name, String defaultValue) {
+        int index = options.extras.indexOf(name);
+        if (index != -1 && index + 1 < options.extras.size()) {
+            return options.extras.get(index + 1);
+        }
+        return defaultValue;
+    }
+
+    private static int findServerPid() {
+        File[] files = new File("/proc").listFiles();
+        if (files == null) {
+            return -1;
+        }
+        for (File file : files) {
+            if (!file.getName().matches("\\d+")) {
+                continue;
+            }
+            try (FileInputStream in = new FileInputStream(new File(file, "cmdline"))) {
+                byte[] buffer = new byte[16];
+                int n = in.read(buffer);
+                int end = 0;
+                while (end < n && buffer[end] != 0) {
+                    end++;
+                }
+                if ("sui".equals(new String(buffer, 0, end))) {
+                    return Integer.parseInt(file.getName());
+                }
+            } catch (IOException | RuntimeException ignored) {
+            }
+        }
+        return -1;
+    }
+
+    private static void runWorker(int client, LoadTest.Options options) throws InterruptedException {
+        String packageName = getExtra(options, "--package", Os.getuid() == 2000 ? "com.android.shell" : null);
+        String serviceName = getExtra(options, "--service", "package");
+        if (packageName == null) {
+            System.err.println("--package is required when not running as shell");
+            System.exit(1);
+        }
+
+        LoadTest.Result result = new LoadTest(options, c -> new SuiTarget(c, packageName, serviceName, options.batchSize)).run(client, 1);
+        result.write(System.out);
+        System.out.flush();
+    }
+
+    private static void runParent(String[] args, LoadTest.Options options) throws Exception {
+        int serverPid = Integer.parseInt(getExtra(options, "--server-pid", "-1"));
+        if (serverPid == -1) {
+            serverPid = findServerPid();
+        }
+
+        // Give the workers time to boot and attach before the first call
+        long startAt = System.currentTimeMillis() + 2000 + 50L * options.clients;
+        long measureStart = startAt + options.warmupMillis;
+        long end = measureStart + options.durationMillis;
+
+        String classPath = System.getProperty("java.class.path");
+        List<Process> processes = new ArrayList<>();
+        List<Thread> readers = new ArrayList<>();
+        LoadTest.Result result = new LoadTest.Result();
+        for (int i = 0; i < options.clients; i++) {
+            List<String> cmd = new ArrayList<>(Arrays.asList(
+                    "/system/bin/app_process", "-Djava.class.path=" + classPath, "/system/bin",
+                    "--nice-name=sui_loadtest:" + i, Main.class.getName(),
+                    WORKER, Integer.toString(i), "--start-at", Long.toString(startAt)));
+            cmd.addAll(Arrays.asList(args));
+            Process process = new ProcessBuilder(cmd).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            processes.add(process);
+
+            Thread reader = new Thread(() -> {
+                try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        if (!LoadTest.Result.parse(line, result)) {
+                            System.out.println(line);
+                        }
+                    }
+                } catch (IOException ignored) {
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+
+        long cpuStart = -1, cpuEnd = -1, rssStart = -1, rssPeak = -1, rssEnd = -1;
+        if (serverPid != -1) {
+            sleepUntil(measureStart);
+            cpuStart = OsUtils.getCpuTimeMillis(serverPid);
+            rssStart = OsUtils.getRssKb(serverPid);
+            rssPeak = rssStart;
+            while (System.currentTimeMillis() < end) {
+                Thread.sleep(Math.min(250, Math.max(1, end - System.currentTimeMillis())));
+                rssPeak = Math.max(rssPeak, OsUtils.getRssKb(serverPid));
+            }
+            cpuEnd = OsUtils.getCpuTimeMillis(serverPid);
+            rssEnd = OsUtils.getRssKb(serverPid);
+        }
+
+        for (Process process : processes) {
+            process.waitFor();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        System.out.printf(Locale.ENGLISH, "clients=%d duration=%.1fs warmup=%.1fs rate=%s%n",
+                options.clients, options.durationMillis / 1000.0, options.warmupMillis / 1000.0,
+                options.rate > 0 ? options.rate + "/s per client" : "closed loop");
+        result.print(System.out);
+        if (serverPid == -1) {
+            System.out.println("server: not found, CPU and RSS unavailable");
+        } else if (cpuStart < 0 || cpuEnd < 0 || rssStart < 0) {
+            System.out.println("server: pid " + serverPid + ", /proc not readable, CPU and RSS unavailable");
+        } else {
+            System.out.printf(Locale.ENGLISH, "server: pid %d, cpu %d ms (%.2f cores), rss start=%d kB peak=%d kB end=%d kB%n",
+                    serverPid, cpuEnd - cpuStart, (cpuEnd - cpuStart) / (double) options.durationMillis,
+                    rssStart, rssPeak, rssEnd);
+        }
+    }
+
+    private static void sleepUntil(long time) throws InterruptedException {
+        long wait = time - System.currentTimeMillis();
+        if (wait > 0) {
+            Thread.sleep(wait);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && ("-h".equals(args[0]) || "--help".equals(args[0]))) {
+            printUsage();
+            return;
+        }
+
+        if (args.length > 1 && WORKER.equals(args[0])) {
+            int client = Integer.parseInt(args[1]);
+            runWorker(client, LoadTest.Options.parse(Arrays.copyOfRange(args, 2, args.length)));
+        } else {
+            runParent(args, LoadTest.Options.parse(args));
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package rikka.sui.loadtest;
+
+import android.os.Bundle;
+import android.os.IBinder;
+import android.os.Parcel;
+import android.os.RemoteException;
+import android.os.ServiceManager;
+
+import moe.shizuku.server.IShizukuApplication;
+import moe.shizuku.server.IShizukuService;
+import rikka.shizuku.ShizukuApiConstants;
+import rikka.sui.server.ServerConstants;
+import rikka.sui.util.BridgeServiceClient;
+
+/**
+ * A client in its own process, gets the binder through the bridge in system_server and
+ * attaches like an app would.
+ */
+public class SuiTarget implements LoadTarget {
+
+    private final String packageName;
+    private final String serviceName;
+    private final int client;
+    private final int batchSize;
+
+    private IShizukuService service;
+    private IBinder remote;
+
+    private final IShizukuApplication application = new IShizukuApplication.Stub() {
+
+        @Override
+        public void bindApplication(Bundle data) {
+        }
+
+        @Override
+        public void dispatchRequestPermissionResult(int requestCode, Bundle data) {
+        }
+
+        @Override
+        public void showPermissionConfirmation(int requestUid, int requestPid, String requestPackageName, int requestCode) {
+        }
+    };
+
+    public SuiTarget(int client, String packageName, String serviceName, int batchSize) {
+        this.client = client;
+        this.batchSize = batchSize;
+        this.packageName = packageName;
+        this.serviceName = serviceName;
+    }
+
+    @Override
+    public void attach() throws Exception {
+        service = BridgeServiceClient.getService();
+        if (service == null) {
+            throw new IllegalStateException("unable to get the binder from the bridge");
+        }
+        remote = ServiceManager.getService(serviceName);
+        if (remote == null) {
+            throw new IllegalStateException("service " + serviceName + " not found");
+        }
+
+        Bundle args = new Bundle();
+        args.putString(ShizukuApiConstants.ATTACH_APPLICATION_PACKAGE_NAME, packageName);
+        args.putInt(ShizukuApiConstants.ATTACH_APPLICATION_API_VERSION, ShizukuApiConstants.SERVER_VERSION);
+        service.attachApplication(application, args);
+    }
+
+    @Override
+    public void call(Op op) throws Exception {
+        switch (op) {
+            case GET_VERSION:
+                service.getVersion();
+                break;
+            case TRANSACT_REMOTE:
+                transactRemote();
+                break;
+            case REQUEST_PERMISSION:
+                service.requestPermission(client);
+                break;
+            case BATCH:
+                transactRemoteBatch();
+                break;
+        }
+    }
+
+    private void transactRemote() throws RemoteException {
+        Parcel data = Parcel.obtain();
+        Parcel reply = Parcel.obtain();
+        try {
+            data.writeInterfaceToken(ShizukuApiConstants.BINDER_DESCRIPTOR);
+            data.writeStrongBinder(remote);
+            data.writeInt(IBinder.INTERFACE_TRANSACTION);
+            data.writeInt(0);
+            service.asBinder().transact(ShizukuApiConstants.BINDER_TRANSACTION_transact, data, reply, 0);
+            reply.readException();
+        } finally {
+            data.recycle();
+            reply.recycle();
+        }
+    }
+
+    private void transactRemoteBatch() throws RemoteException {
+        Parcel data = Parcel.obtain();
+        Parcel reply = Parcel.obtain();
+        try {
+            data.writeInterfaceToken(ShizukuApiConstants.BINDER_DESCRIPTOR);
+            data.writeInt(batchSize);
+            for (int i = 0; i < batchSize; i++) {
+                data.writeStrongBinder(remote);
+                data.writeInt(IBinder.INTERFACE_TRANSACTION);
+                data.writeInt(0);
+                data.writeInt(0);
+            }
+            service.asBinder().transact(ServerConstants.BINDER_TRANSACTION_transactRemoteBatch, data, reply, 0);
+            reply.readException();
+            int count = reply.readInt();
+            for (int i = 0; i < count; i++) {
+                int status = reply.readInt();
+                if (status == ServerConstants.TRANSACT_BATCH_OK) {
+                    reply.setDataPosition(reply.dataPosition() + reply.readInt());
+                } else if (status == ServerConstants.TRANSACT_BATCH_FAILED) {
+                    throw new IllegalStateException(reply.readString());
+                } else if (status == ServerConstants.TRANSACT_BATCH_TRUNCATED) {
+                    throw new IllegalStateException("reply of call " + i + " is over the batch reply size");
+                } else {
+                    throw new IllegalStateException("batch truncated at " + i);
+                }
+            }
+        } finally {
+            data.recycle();
+            reply.recycle();
+        }
+    }
+}
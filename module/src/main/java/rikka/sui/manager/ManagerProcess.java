@@ -29,11 +29,16 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.os.Binder;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
 import android.os.Parcel;
 import android.os.RemoteException;
 
-import java.lang.reflect.InvocationTargetException;
+import androidx.annotation.NonNull;
+
+import java.lang.reflect.Method;
 import java.util.Arrays;
 
 import moe.shizuku.server.IShizukuApplication;
@@ -41,13 +46,22 @@ import moe.shizuku.server.IShizukuService;
 import rikka.shizuku.ShizukuApiConstants;
 import rikka.sui.resource.SuiApk;
 import rikka.sui.server.ServerConstants;
+import rikka.sui.settings.ActivityThreadUtil;
+import rikka.sui.settings.HandlerUtil;
 import rikka.sui.shortcut.SuiShortcut;
 import rikka.sui.util.BridgeServiceClient;
+import rikka.sui.util.Systrace;
 
 public class ManagerProcess {
 
+    private static final long RETRY_DELAY_MIN = 100;
+    private static final long RETRY_DELAY_MAX = 1000;
+
     private static Intent intent;
     private static SuiApk suiApk;
+    private static volatile Object dialog;
+    private static boolean reflection = false;
+    private static boolean registered = false;
 
     private static final IShizukuApplication APPLICATION = new IShizukuApplication.Stub() {
 
@@ -65,18 +79,20 @@ public class ManagerProcess {
         public void showPermissionConfirmation(int requestUid, int requestPid, String requestPackageName, int requestCode) {
             LOGGER.i("showPermissionConfirmation: %d %d %s %d", requestUid, requestPid, requestPackageName, requestCode);
 
-            if (suiApk == null) {
+            Object dialog = ManagerProcess.dialog;
+            Method show = suiApk != null ? suiApk.getSuiRequestPermissionDialogShowMethod() : null;
+            if (dialog == null || show == null) {
                 LOGGER.e("Cannot load apk");
                 return;
             }
 
+            Systrace.begin("Sui:showPermissionConfirmation");
             try {
-                suiApk.getSuiRequestPermissionDialogConstructor().newInstance(
-                        ActivityThread.currentActivityThread().getApplication(), suiApk.getResources(),
-                        requestUid, requestPid, requestPackageName, requestCode
-                );
-            } catch (IllegalAccessException | InstantiationException | InvocationTargetException e) {
+                show.invoke(dialog, requestUid, requestPid, requestPackageName, requestCode);
+            } catch (Throwable e) {
                 LOGGER.e(e, "showPermissionConfirmation");
+            } finally {
+                Systrace.end();
             }
         }
     };
@@ -104,30 +120,65 @@ public class ManagerProcess {
         }
     };
 
+    private static final IBinder.DeathRecipient DEATH_RECIPIENT = () -> {
+        LOGGER.w("service is dead, attach again");
+        WorkerHandler.get().post(ManagerProcess::sendToService);
+    };
+
+    private static long retryDelay = RETRY_DELAY_MIN;
+
+    private static void retrySendToService() {
+        WorkerHandler.get().postDelayed(ManagerProcess::sendToService, retryDelay);
+        retryDelay = Math.min(retryDelay * 2, RETRY_DELAY_MAX);
+    }
+
+    /*
+     * Attaching is the readiness signal to the server, the server queues permission
+     * requests until then. So SuiApk is loaded before attaching, a request that comes right
+     * after attaching can be shown at once.
+     */
     private static void sendToService() {
         IShizukuService service = BridgeServiceClient.getService();
         if (service == null) {
-            LOGGER.w("service is null, wait 1s");
-            WorkerHandler.get().postDelayed(ManagerProcess::sendToService, 1000);
+            LOGGER.w("service is null, wait %d ms", retryDelay);
+            retrySendToService();
             return;
         }
 
+        if (suiApk == null) {
+            suiApk = SuiApk.createForSystemUI();
+            if (suiApk != null) {
+                // Inflates and styles the dialog on the main thread when it's idle, so that
+                // the first request only binds text
+                try {
+                    dialog = suiApk.getSuiRequestPermissionDialogConstructor().newInstance(
+                            ActivityThread.currentActivityThread().getApplication(), suiApk.getResources());
+                } catch (Throwable e) {
+                    LOGGER.e(e, "create dialog");
+                }
+            }
+        }
+
         Bundle args = new Bundle();
         args.putString(ATTACH_APPLICATION_PACKAGE_NAME, "com.android.systemui");
         args.putInt(ATTACH_APPLICATION_API_VERSION, SERVER_VERSION);
 
         try {
             service.attachApplication(APPLICATION, args);
+            service.asBinder().linkToDeath(DEATH_RECIPIENT, 0);
+            retryDelay = RETRY_DELAY_MIN;
             LOGGER.i("attachApplication");
         } catch (RemoteException e) {
             LOGGER.w(e, "attachApplication");
-            WorkerHandler.get().postDelayed(ManagerProcess::sendToService, 1000);
+            retrySendToService();
         }
-
-        suiApk = SuiApk.createForSystemUI();
     }
 
     private static void registerListener() {
+        if (registered) {
+            return;
+        }
+
         Context context = null;
         try {
             context = ActivityThread.currentActivityThread().getApplication();
@@ -141,6 +192,7 @@ public class ManagerProcess {
             return;
         }
 
+        registered = true;
         WorkerHandler.get().post(ManagerProcess::sendToService);
 
         IntentFilter intentFilter = new IntentFilter();
@@ -158,8 +210,60 @@ public class ManagerProcess {
         }
     }
 
+    public static boolean execTransact(@NonNull Binder binder, int code, long dataObj, long replyObj, int flags) {
+        if (!reflection) {
+            return false;
+        }
+
+        String descriptor = binder.getInterfaceDescriptor();
+
+        if (!"android.app.IApplicationThread".equals(descriptor)) {
+            return false;
+        }
+
+        ActivityThread activityThread = ActivityThread.currentActivityThread();
+        if (activityThread == null) {
+            LOGGER.w("ActivityThread is null");
+            return false;
+        }
+
+        Handler handler = ActivityThreadUtil.getH(activityThread);
+        int bindApplicationCode = ActivityThreadUtil.getBindApplication();
+
+        Handler.Callback original = HandlerUtil.getCallback(handler);
+        HandlerUtil.setCallback(handler, msg -> {
+            if (msg.what == bindApplicationCode
+                    && ActivityThreadUtil.isAppBindData(msg.obj)) {
+                LOGGER.v("call original bindApplication");
+                handler.handleMessage(msg);
+                LOGGER.v("bindApplication finished");
+                // Application is created
+                WorkerHandler.get().post(ManagerProcess::registerListener);
+                HandlerUtil.setCallback(handler, original);
+                return true;
+            }
+            if (original != null) {
+                return original.handleMessage(msg);
+            }
+            return false;
+        });
+
+        return false;
+    }
+
     public static void main(String[] args) {
         LOGGER.d("main: %s", Arrays.toString(args));
+
+        try {
+            ActivityThreadUtil.init();
+            HandlerUtil.init();
+            reflection = true;
+        } catch (Throwable e) {
+            LOGGER.e(e, "init reflection");
+        }
+
+        // Normally, registerListener is called right after bindApplication. This is for the
+        // case bindApplication can't be hooked.
         WorkerHandler.get().postDelayed(ManagerProcess::registerListener, 5000);
     }
 }
@@ -0,0 +1,98 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package rikka.sui.model;
+
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+public class PackageChange implements Parcelable {
+
+    public static final int ACTION_ADDED = 1;
+    public static final int ACTION_REMOVED = 2;
+    public static final int ACTION_FULLY_REMOVED = 3;
+
+    public final int action;
+    public final int uid;
+    public final String packageName;
+    public final boolean replacing;
+
+    public PackageChange(int action, int uid, String packageName, boolean replacing) {
+        this.action = action;
+        this.uid = uid;
+        this.packageName = packageName;
+        this.replacing = replacing;
+    }
+
+    /**
+     * Returns null if the intent is not one of the package broadcasts Sui cares about.
+     */
+    public static PackageChange fromIntent(Intent intent) {
+        int action;
+        if (Intent.ACTION_PACKAGE_ADDED.equals(intent.getAction())) {
+            action = ACTION_ADDED;
+        } else if (Intent.ACTION_PACKAGE_REMOVED.equals(intent.getAction())) {
+            action = ACTION_REMOVED;
+        } else if (Intent.ACTION_PACKAGE_FULLY_REMOVED.equals(intent.getAction())) {
+            action = ACTION_FULLY_REMOVED;
+        } else {
+            return null;
+        }
+
+        Uri uri = intent.getData();
+        String packageName = (uri != null) ? uri.getSchemeSpecificPart() : null;
+        int uid = intent.getIntExtra(Intent.EXTRA_UID, -1);
+        boolean replacing = intent.getBooleanExtra(Intent.EXTRA_REPLACING, false);
+        return new PackageChange(action, uid, packageName, replacing);
+    }
+
+    protected PackageChange(Parcel in) {
+        action = in.readInt();
+        uid = in.readInt();
+        packageName = in.readString();
+        replacing = in.readInt() != 0;
+    }
+
+    public static final Creator<PackageChange> CREATOR = new Creator<PackageChange>() {
+        @Override
+        public PackageChange createFromParcel(Parcel in) {
+            return new PackageChange(in);
+        }
+
+        @Override
+        public PackageChange[] newArray(int size) {
+            return new PackageChange[size];
+        }
+    };
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(action);
+        dest.writeInt(uid);
+        dest.writeString(packageName);
+        dest.writeInt(replacing ? 1 : 0);
+    }
+}
@@ -35,6 +35,7 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.Arrays;
 import java.util.Objects;
 
 import dalvik.system.PathClassLoader;
@@ -51,6 +52,7 @@ public class SuiApk {
     private Class<?> suiRequestPermissionDialogClass;
     private Constructor<?> suiActivityConstructor;
     private Constructor<?> suiRequestPermissionDialogConstructor;
+    private Method suiRequestPermissionDialogShowMethod;
 
     public static SuiApk createForSettings() {
         SuiApk apk;
@@ -136,13 +138,36 @@ public class SuiApk {
         try {
             suiRequestPermissionDialogClass = classLoader.loadClass("rikka.sui.SuiRequestPermissionDialog");
             suiRequestPermissionDialogConstructor = suiRequestPermissionDialogClass.getDeclaredConstructor(
-                    Application.class, Resources.class,
-                    int.class, int.class, String.class, int.class);
+                    Application.class, Resources.class);
+            suiRequestPermissionDialogShowMethod = findShowMethod(suiRequestPermissionDialogClass);
+            if (suiRequestPermissionDialogShowMethod == null) {
+                LOGGER.e("Cannot find show method of SuiRequestPermissionDialog");
+            }
         } catch (Throwable e) {
             LOGGER.e(e, "Cannot load SuiRequestPermissionDialog class");
         }
     }
 
+    private static Method findShowMethod(Class<?> cls) {
+        Class<?>[] parameterTypes = new Class<?>[]{int.class, int.class, String.class, int.class};
+        try {
+            return cls.getMethod("show", parameterTypes);
+        } catch (NoSuchMethodException ignored) {
+        }
+
+        // Renamed by a build without the keep rule, the signature is unique
+        Method found = null;
+        for (Method method : cls.getMethods()) {
+            if (method.getReturnType() == void.class && Arrays.equals(method.getParameterTypes(), parameterTypes)) {
+                if (found != null) {
+                    return null;
+                }
+                found = method;
+            }
+        }
+        return found;
+    }
+
     public ClassLoader getClassLoader() {
         return classLoader;
     }
@@ -163,6 +188,10 @@ public class SuiApk {
         return suiRequestPermissionDialogConstructor;
     }
 
+    public Method getSuiRequestPermissionDialogShowMethod() {
+        return suiRequestPermissionDialogShowMethod;
+    }
+
     public Resources getResources() {
         return resources;
     }
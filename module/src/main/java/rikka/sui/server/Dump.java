@@ -0,0 +1,82 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package rikka.sui.server;
+
+import android.os.IBinder;
+import android.os.Parcel;
+
+import java.io.FileDescriptor;
+
+import moe.shizuku.server.IShizukuService;
+import rikka.shizuku.ShizukuApiConstants;
+import rikka.sui.util.BridgeServiceClient;
+
+/**
+ * Dump the state of the server to stdout, run as root or shell:
+ * <pre>
+ * app_process -Djava.class.path=/data/adb/sui/sui.dex /system/bin rikka.sui.server.Dump [args]
+ * </pre>
+ * The server is not registered to servicemanager, where any app could find it, so dumpsys
+ * can't reach it. This gets the binder from system_server instead.
+ * <p>
+ * {@code limit <uid> <calls per second> [<weight>]} changes the transactRemote limits of a uid,
+ * as root, then dumps them. The dump itself never changes anything.
+ */
+public class Dump {
+
+    public static void main(String[] args) {
+        IShizukuService service = BridgeServiceClient.getService();
+        if (service == null) {
+            System.err.println("Unable to acquire the binder of Sui");
+            System.err.flush();
+            System.exit(1);
+        }
+
+        try {
+            if (args.length > 2 && "limit".equals(args[0])) {
+                setTransactLimits(service.asBinder(), Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+                        args.length > 3 ? Integer.parseInt(args[3]) : -1);
+                args = new String[]{args[0], args[1]};
+            }
+            service.asBinder().dump(FileDescriptor.out, args);
+        } catch (Throwable e) {
+            e.printStackTrace(System.err);
+            System.err.flush();
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    private static void setTransactLimits(IBinder binder, int uid, int rateLimit, int weight) throws Exception {
+        Parcel data = Parcel.obtain();
+        Parcel reply = Parcel.obtain();
+        try {
+            data.writeInterfaceToken(ShizukuApiConstants.BINDER_DESCRIPTOR);
+            data.writeInt(uid);
+            data.writeInt(rateLimit);
+            data.writeInt(weight);
+            binder.transact(ServerConstants.BINDER_TRANSACTION_setTransactLimits, data, reply, 0);
+            reply.readException();
+        } finally {
+            data.recycle();
+            reply.recycle();
+        }
+    }
+}
@@ -20,13 +20,39 @@
 package rikka.sui.server;
 
 import rikka.sui.util.Logger;
+import rikka.sui.util.TraceBuffer;
 
 public class ServerConstants {
 
     public static final Logger LOGGER = new Logger("SuiServer");
+    public static final TraceBuffer TRACE = new TraceBuffer(4096);
 
     public static final int BINDER_TRANSACTION_getApplications = 10001;
     public static final int BINDER_TRANSACTION_showManagement = 10002;
     public static final int BINDER_TRANSACTION_openApk = 10003;
+    public static final int BINDER_TRANSACTION_dispatchPackagesChanged = 10004;
+
+    // transactRemote calls run back-to-back in order.
+    // data: int count, then for each: binder, int code, int flags, int size, size bytes of data.
+    // reply: int count, then for each: int status, then int size and size bytes of the reply for
+    // TRANSACT_BATCH_OK, a String of the exception for TRANSACT_BATCH_FAILED, or nothing for
+    // TRANSACT_BATCH_TRUNCATED (the call ran, but its entry would take the whole reply, statuses,
+    // sizes and exception strings included, over TRANSACT_BATCH_MAX_REPLY_SIZE) and for
+    // TRANSACT_BATCH_SKIPPED (not called, following a truncated one).
+    public static final int BINDER_TRANSACTION_transactRemoteBatch = 10005;
+    public static final int TRANSACT_BATCH_OK = 0;
+    public static final int TRANSACT_BATCH_FAILED = 1;
+    public static final int TRANSACT_BATCH_SKIPPED = 2;
+    public static final int TRANSACT_BATCH_TRUNCATED = 3;
+    public static final int TRANSACT_BATCH_MAX_ENTRIES = 512;
+    public static final int TRANSACT_BATCH_MAX_REPLY_SIZE = 256 * 1024;
+
+    // Root only. Sets the transactRemote rate limit and weight of a uid, 0 for the defaults.
+    // data: int uid, int calls per second, int weight, or -1 to keep the weight.
+    public static final int BINDER_TRANSACTION_setTransactLimits = 10006;
+
+    // Error codes of ServiceSpecificException thrown from transactRemote
+    public static final int TRANSACT_ERROR_RATE_LIMITED = 1;
+    public static final int TRANSACT_ERROR_OVER_SHARE = 2;
 
 }
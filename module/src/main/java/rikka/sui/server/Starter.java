@@ -27,6 +27,8 @@ import android.os.ServiceManager;
 
 import java.util.Objects;
 
+import rikka.sui.util.Systrace;
+
 public class Starter {
 
     private static void waitSystemService(String name) {
@@ -54,10 +56,12 @@ public class Starter {
 
         Objects.requireNonNull(filesPath, "--files-path not set");
 
+        Systrace.begin("Sui:waitSystemServices");
         waitSystemService("package");
         waitSystemService("activity");
         waitSystemService(Context.USER_SERVICE);
         waitSystemService(Context.APP_OPS_SERVICE);
+        Systrace.end();
 
         SuiService.main(filesPath);
     }
@@ -0,0 +1,277 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+
+package rikka.sui.server;
+
+import static rikka.sui.server.ServerConstants.LOGGER;
+
+import android.os.SystemClock;
+import android.os.SystemProperties;
+import android.util.SparseIntArray;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.util.Locale;
+
+import rikka.sui.util.DumpWriter;
+import rikka.sui.util.OsUtils;
+
+/**
+ * Size of the binder thread pool of the server, and admission of incoming transactions so
+ * one uid can't occupy every thread.
+ * <p>
+ * {@code persist.sui.binder.threads} sets the max number of binder threads the kernel may
+ * spawn (the default of libbinder is 15). {@code persist.sui.binder.max_per_uid} is the
+ * number of transactions a uid may have in the server at once, extra ones are rejected with
+ * {@link IllegalStateException}. The default keeps two threads for the others, 0 disables
+ * it. Root and system are never limited.
+ */
+public class SuiBinderThreads {
+
+    private static final String PROP_THREADS = "persist.sui.binder.threads";
+    private static final String PROP_MAX_PER_UID = "persist.sui.binder.max_per_uid";
+
+    private static final int DEFAULT_MAX_THREADS = 15;
+    private static final int MAX_THREADS = 64;
+    private static final int RESERVED_THREADS = 2;
+
+    private static final String[] BINDER_PROC_PATHS = {
+            "/dev/binderfs/binder_logs/proc/",
+            "/sys/kernel/debug/binder/proc/"
+    };
+
+    private final int threads;
+    private final int maxPerUid;
+
+    private final SparseIntArray inFlightByUid = new SparseIntArray();
+    private final SparseIntArray rejectedByUid = new SparseIntArray();
+    private int inFlight;
+    private int peakInFlight;
+    private long admitted;
+    private long rejected;
+    private long saturatedCount;
+    private long saturatedSince;
+    private long saturatedNanos;
+    private final long startTime = SystemClock.elapsedRealtimeNanos();
+
+    public SuiBinderThreads() {
+        int maxThreads = SystemProperties.getInt(PROP_THREADS, 0);
+        if (maxThreads > 0) {
+            maxThreads = Math.min(maxThreads, MAX_THREADS);
+            if (!setMaxThreads(maxThreads)) {
+                maxThreads = DEFAULT_MAX_THREADS;
+            }
+        } else {
+            maxThreads = DEFAULT_MAX_THREADS;
+        }
+        // The thread started by startThreadPool is not counted by the kernel
+        threads = maxThreads + 1;
+
+        int max = SystemProperties.getInt(PROP_MAX_PER_UID, -1);
+        maxPerUid = max >= 0 ? max : Math.max(1, threads - RESERVED_THREADS);
+        LOGGER.i("binder threads %d, max per uid %d", threads, maxPerUid);
+    }
+
+    private static boolean setMaxThreads(int count) {
+        try {
+            Method method = Class.forName("com.android.internal.os.BinderInternal").getDeclaredMethod("setMaxThreads", int.class);
+            method.invoke(null, count);
+            return true;
+        } catch (Throwable e) {
+            LOGGER.w(e, "setMaxThreads %d", count);
+            return false;
+        }
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    private static boolean isExempt(int uid) {
+        return uid == 0 || uid == 1000;
+    }
+
+    /**
+     * Called when a transaction enters the server, {@link #exit(int)} must follow if it
+     * returns normally.
+     *
+     * @throws IllegalStateException if the uid has too many transactions in the server
+     */
+    public void enter(int uid) {
+        synchronized (this) {
+            int count = inFlightByUid.get(uid);
+            if (maxPerUid > 0 && count >= maxPerUid && !isExempt(uid)) {
+                rejected++;
+                rejectedByUid.put(uid, rejectedByUid.get(uid) + 1);
+                throw new IllegalStateException("Too many concurrent transactions from uid " + uid);
+            }
+            inFlightByUid.put(uid, count + 1);
+            inFlight++;
+            admitted++;
+            if (inFlight > peakInFlight) {
+                peakInFlight = inFlight;
+            }
+            if (inFlight >= threads) {
+                saturatedCount++;
+                if (saturatedSince == 0) {
+                    saturatedSince = SystemClock.elapsedRealtimeNanos();
+                }
+            }
+        }
+    }
+
+    public void exit(int uid) {
+        synchronized (this) {
+            int count = inFlightByUid.get(uid) - 1;
+            if (count > 0) {
+                inFlightByUid.put(uid, count);
+            } else {
+                inFlightByUid.delete(uid);
+            }
+            inFlight--;
+            if (inFlight < threads && saturatedSince != 0) {
+                saturatedNanos += SystemClock.elapsedRealtimeNanos() - saturatedSince;
+                saturatedSince = 0;
+            }
+        }
+    }
+
+    /**
+     * Transactions waiting for a thread and threads waiting for work of this process, from
+     * the binder log of the kernel, or null if it's not readable.
+     */
+    private static int[] readKernelState() {
+        for (String path : BINDER_PROC_PATHS) {
+            File file = new File(path + OsUtils.getPid());
+            if (!file.canRead()) {
+                continue;
+            }
+            int pending = 0;
+            int ready = -1;
+            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.startsWith("pending transaction")) {
+                        pending++;
+                    } else if (line.startsWith("ready threads ")) {
+                        ready = Integer.parseInt(line.substring("ready threads ".length()).trim());
+                    }
+                }
+                return new int[]{pending, ready};
+            } catch (IOException | NumberFormatException ignored) {
+            }
+        }
+        return null;
+    }
+
+    private static class Snapshot {
+
+        int inFlight;
+        int peakInFlight;
+        long admitted;
+        long rejected;
+        long saturatedCount;
+        long saturatedMillis;
+        SparseIntArray inFlightByUid;
+        SparseIntArray rejectedByUid;
+    }
+
+    private Snapshot snapshot() {
+        Snapshot s = new Snapshot();
+        synchronized (this) {
+            s.inFlight = inFlight;
+            s.peakInFlight = peakInFlight;
+            s.admitted = admitted;
+            s.rejected = rejected;
+            s.saturatedCount = saturatedCount;
+            long nanos = saturatedNanos;
+            if (saturatedSince != 0) {
+                nanos += SystemClock.elapsedRealtimeNanos() - saturatedSince;
+            }
+            s.saturatedMillis = nanos / 1000000;
+            s.inFlightByUid = inFlightByUid.clone();
+            s.rejectedByUid = rejectedByUid.clone();
+        }
+        return s;
+    }
+
+    public void dump(DumpWriter dw) {
+        Snapshot s = snapshot();
+        int[] kernel = readKernelState();
+
+        dw.beginObject("binder_threads")
+                .value("threads", threads)
+                .value("max_per_uid", maxPerUid)
+                .value("in_flight", s.inFlight)
+                .value("peak_in_flight", s.peakInFlight)
+                .value("admitted", s.admitted)
+                .value("rejected", s.rejected)
+                .value("saturated", s.saturatedCount)
+                .value("saturated_ms", s.saturatedMillis);
+        if (kernel != null) {
+            dw.value("queued", kernel[0])
+                    .value("ready_threads", kernel[1]);
+        }
+        dw.beginArray("uids");
+        for (int i = 0; i < s.inFlightByUid.size(); i++) {
+            int uid = s.inFlightByUid.keyAt(i);
+            dw.beginItem("uid " + uid)
+                    .value("uid", uid)
+                    .value("in_flight", s.inFlightByUid.valueAt(i))
+                    .value("rejected", s.rejectedByUid.get(uid))
+                    .endObject();
+        }
+        for (int i = 0; i < s.rejectedByUid.size(); i++) {
+            int uid = s.rejectedByUid.keyAt(i);
+            if (s.inFlightByUid.indexOfKey(uid) >= 0) {
+                continue;
+            }
+            dw.beginItem("uid " + uid)
+                    .value("uid", uid)
+                    .value("in_flight", 0)
+                    .value("rejected", s.rejectedByUid.valueAt(i))
+                    .endObject();
+        }
+        dw.endArray();
+        dw.endObject();
+    }
+
+    public void dump(PrintWriter pw) {
+        Snapshot s = snapshot();
+        int[] kernel = readKernelState();
+        long uptime = Math.max(1, (SystemClock.elapsedRealtimeNanos() - startTime) / 1000000);
+
+        pw.printf(Locale.ENGLISH, "Binder threads: %d, in flight %d (peak %d), max per uid %d%n",
+                threads, s.inFlight, s.peakInFlight, maxPerUid);
+        pw.printf(Locale.ENGLISH, "  admitted=%d, rejected=%d, saturated=%d times, %d ms (%.2f%%)%n",
+                s.admitted, s.rejected, s.saturatedCount, s.saturatedMillis, s.saturatedMillis * 100.0 / uptime);
+        if (kernel != null) {
+            pw.printf(Locale.ENGLISH, "  queued=%d, ready threads=%d%n", kernel[0], kernel[1]);
+        }
+        for (int i = 0; i < s.rejectedByUid.size(); i++) {
+            pw.printf(Locale.ENGLISH, "  uid=%d: rejected=%d%n", s.rejectedByUid.keyAt(i), s.rejectedByUid.valueAt(i));
+        }
+    }
+}
@@ -19,13 +19,64 @@
 
 package rikka.sui.server;
 
+import android.util.ArraySet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import moe.shizuku.server.IShizukuApplication;
 import rikka.shizuku.server.ClientManager;
+import rikka.shizuku.server.ClientRecord;
+import rikka.sui.util.DumpWriter;
 
 public class SuiClientManager extends ClientManager<SuiConfigManager> {
 
+    // Uids which have attached, ClientManager has no way to list all clients
+    private final Set<Integer> uids = new ArraySet<>();
+
     public SuiClientManager(SuiConfigManager configManager) {
         super(configManager);
     }
+
+    @Override
+    public ClientRecord addClient(int uid, int pid, IShizukuApplication client, String packageName, int apiVersion) {
+        ClientRecord record = super.addClient(uid, pid, client, packageName, apiVersion);
+        if (record != null) {
+            synchronized (uids) {
+                uids.add(uid);
+            }
+        }
+        return record;
+    }
+
+    public void dump(DumpWriter dw) {
+        List<Integer> list;
+        synchronized (uids) {
+            list = new ArrayList<>(uids);
+        }
+
+        dw.beginArray("clients");
+        for (int uid : list) {
+            List<ClientRecord> records = findClients(uid);
+            if (records.isEmpty()) {
+                synchronized (uids) {
+                    uids.remove(uid);
+                }
+                continue;
+            }
+            for (ClientRecord record : records) {
+                dw.beginItem(record.packageName + " (" + record.uid + "/" + record.pid + ")")
+                        .value("uid", record.uid)
+                        .value("pid", record.pid)
+                        .value("package", record.packageName)
+                        .value("api_version", record.apiVersion)
+                        .value("allowed", record.allowed)
+                        .endObject();
+            }
+        }
+        dw.endArray();
+    }
 }
 
 
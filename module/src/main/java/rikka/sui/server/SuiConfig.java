@@ -45,11 +45,24 @@ public class SuiConfig {
 
         public int flags;
 
+        // transactRemote calls per second, 0 for the default
+        public int rateLimit;
+
+        // Share of the binder threads under contention, 0 for the default of 1
+        public int weight;
+
         public PackageEntry(int uid, int flags) {
             this.uid = uid;
             this.flags = flags;
         }
 
+        public PackageEntry(int uid, int flags, int rateLimit, int weight) {
+            this.uid = uid;
+            this.flags = flags;
+            this.rateLimit = rateLimit;
+            this.weight = weight;
+        }
+
         public boolean isAllowed() {
             return (flags & FLAG_ALLOWED) != 0;
         }
@@ -21,9 +21,12 @@ package rikka.sui.server;
 
 import androidx.annotation.Nullable;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import rikka.shizuku.server.ConfigManager;
+import rikka.sui.util.DumpWriter;
 
 public class SuiConfigManager extends ConfigManager {
 
@@ -48,8 +51,28 @@ public class SuiConfigManager extends ConfigManager {
 
     private final SuiConfig config;
 
+    // Entries with a rate limit or a weight, so that the transactRemote path can skip find()
+    private volatile int limitedEntries;
+
     public SuiConfigManager() {
         this.config = load();
+        for (SuiConfig.PackageEntry entry : config.packages) {
+            if (isLimited(entry)) {
+                limitedEntries++;
+            }
+        }
+    }
+
+    private static boolean isLimited(SuiConfig.PackageEntry entry) {
+        return entry.rateLimit > 0 || entry.weight > 0;
+    }
+
+    /**
+     * Returns if any uid has its own rate limit or weight. If not, {@link #find(int)} doesn't
+     * need to be called for them.
+     */
+    public boolean hasLimits() {
+        return limitedEntries > 0;
     }
 
     private SuiConfig.PackageEntry findLocked(int uid) {
@@ -90,6 +113,30 @@ public class SuiConfigManager extends ConfigManager {
         }
     }
 
+    /**
+     * Set the transactRemote rate limit and the weight of uid, 0 for the defaults, or a weight
+     * of -1 to keep the current one.
+     */
+    public void updateLimits(int uid, int rateLimit, int weight) {
+        synchronized (this) {
+            SuiConfig.PackageEntry entry = findLocked(uid);
+            if (weight < 0) {
+                weight = entry != null ? entry.weight : 0;
+            }
+            if (entry == null) {
+                entry = new SuiConfig.PackageEntry(uid, 0);
+                config.packages.add(entry);
+            } else if (entry.rateLimit == rateLimit && entry.weight == weight) {
+                return;
+            }
+            boolean wasLimited = isLimited(entry);
+            entry.rateLimit = rateLimit;
+            entry.weight = weight;
+            limitedEntries += (isLimited(entry) ? 1 : 0) - (wasLimited ? 1 : 0);
+            SuiDatabase.updateLimits(uid, entry.flags, rateLimit, weight);
+        }
+    }
+
     @Override
     public void remove(int uid) {
         synchronized (this) {
@@ -98,10 +145,33 @@ public class SuiConfigManager extends ConfigManager {
                 return;
             }
             config.packages.remove(entry);
+            if (isLimited(entry)) {
+                limitedEntries--;
+            }
             SuiDatabase.removeUid(uid);
         }
     }
 
+    public void remove(List<Integer> uids) {
+        synchronized (this) {
+            List<Integer> removed = new ArrayList<>();
+            for (int uid : uids) {
+                SuiConfig.PackageEntry entry = findLocked(uid);
+                if (entry == null) {
+                    continue;
+                }
+                config.packages.remove(entry);
+                if (isLimited(entry)) {
+                    limitedEntries--;
+                }
+                removed.add(uid);
+            }
+            if (!removed.isEmpty()) {
+                SuiDatabase.removeUids(removed);
+            }
+        }
+    }
+
     public boolean isHidden(int uid) {
         SuiConfig.PackageEntry entry = find(uid);
         if (entry == null) {
@@ -109,4 +179,54 @@ public class SuiConfigManager extends ConfigManager {
         }
         return (entry.flags & SuiConfig.FLAG_HIDDEN) != 0;
     }
+
+    public void dump(DumpWriter dw) {
+        int[] uids;
+        int[] flags;
+        int[] rateLimits;
+        int[] weights;
+        synchronized (this) {
+            int size = config.packages.size();
+            uids = new int[size];
+            flags = new int[size];
+            rateLimits = new int[size];
+            weights = new int[size];
+            for (int i = 0; i < size; i++) {
+                SuiConfig.PackageEntry entry = config.packages.get(i);
+                uids[i] = entry.uid;
+                flags[i] = entry.flags;
+                rateLimits[i] = entry.rateLimit;
+                weights[i] = entry.weight;
+            }
+        }
+
+        dw.beginArray("config");
+        for (int i = 0; i < uids.length; i++) {
+            StringBuilder sb = new StringBuilder();
+            if ((flags[i] & SuiConfig.FLAG_ALLOWED) != 0) sb.append("|allowed");
+            if ((flags[i] & SuiConfig.FLAG_DENIED) != 0) sb.append("|denied");
+            if ((flags[i] & SuiConfig.FLAG_HIDDEN) != 0) sb.append("|hidden");
+            dw.beginItem("uid " + uids[i])
+                    .value("uid", uids[i])
+                    .value("flags", flags[i])
+                    .value("flag_names", sb.length() > 0 ? sb.substring(1) : "")
+                    .value("rate_limit", rateLimits[i])
+                    .value("weight", weights[i])
+                    .endObject();
+        }
+        dw.endArray();
+    }
+
+    public int[] getHiddenUids() {
+        synchronized (this) {
+            int count = 0;
+            int[] uids = new int[config.packages.size()];
+            for (SuiConfig.PackageEntry entry : config.packages) {
+                if (entry.isHidden()) {
+                    uids[count++] = entry.uid;
+                }
+            }
+            return Arrays.copyOf(uids, count);
+        }
+    }
 }
@@ -2,11 +2,13 @@ package rikka.sui.server;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 
 import androidx.annotation.Nullable;
 
 import java.io.File;
+import java.util.List;
 
 import rikka.sui.server.SuiConfig.PackageEntry;
 import rikka.sui.util.SQLiteDataBaseRemoteCompat;
@@ -22,6 +24,7 @@ public class SuiDatabase {
 
     private static final String DATABASE_PATH;
     private static final String UID_CONFIG_TABLE = "uid_configs";
+    private static final int DATABASE_VERSION = 1;
     private static SQLiteDatabase databaseInternal;
 
     private static SQLiteDatabase createDatabase(boolean allowRetry) {
@@ -29,6 +32,7 @@ public class SuiDatabase {
         try {
             database = SQLiteDataBaseRemoteCompat.openDatabase(DATABASE_PATH, null);
             database.execSQL("CREATE TABLE IF NOT EXISTS uid_configs(uid INTEGER PRIMARY KEY, flags INTEGER);");
+            upgradeDatabase(database);
         } catch (Throwable e) {
             ServerConstants.LOGGER.e(e, "create database");
             if (allowRetry && (new File(DATABASE_PATH)).delete()) {
@@ -42,6 +46,23 @@ public class SuiDatabase {
         return database;
     }
 
+    private static void upgradeDatabase(SQLiteDatabase database) {
+        int version = database.getVersion();
+        if (version >= DATABASE_VERSION) {
+            return;
+        }
+        if (version < 1) {
+            for (String column : new String[]{"rate_limit", "weight"}) {
+                try {
+                    database.execSQL("ALTER TABLE uid_configs ADD COLUMN " + column + " INTEGER DEFAULT 0;");
+                } catch (SQLException e) {
+                    ServerConstants.LOGGER.w(e, "add column %s", column);
+                }
+            }
+        }
+        database.setVersion(DATABASE_VERSION);
+    }
+
     private static SQLiteDatabase getDatabase() {
         if (databaseInternal == null) {
             databaseInternal = createDatabase(true);
@@ -63,9 +84,13 @@ public class SuiDatabase {
             SuiConfig res = new SuiConfig();
             int cursorIndexOfUid = cursor.getColumnIndexOrThrow("uid");
             int cursorIndexOfFlags = cursor.getColumnIndexOrThrow("flags");
+            int cursorIndexOfRateLimit = cursor.getColumnIndex("rate_limit");
+            int cursorIndexOfWeight = cursor.getColumnIndex("weight");
             if (cursor.moveToFirst()) {
                 do {
-                    res.packages.add(new PackageEntry(cursor.getInt(cursorIndexOfUid), cursor.getInt(cursorIndexOfFlags)));
+                    res.packages.add(new PackageEntry(cursor.getInt(cursorIndexOfUid), cursor.getInt(cursorIndexOfFlags),
+                            cursorIndexOfRateLimit != -1 ? cursor.getInt(cursorIndexOfRateLimit) : 0,
+                            cursorIndexOfWeight != -1 ? cursor.getInt(cursorIndexOfWeight) : 0));
                 } while (cursor.moveToNext());
             }
             return res;
@@ -88,6 +113,24 @@ public class SuiDatabase {
         }
     }
 
+    public static void updateLimits(int uid, int flags, int rateLimit, int weight) {
+        SQLiteDatabase database = getDatabase();
+        if (database == null) {
+            return;
+        }
+
+        ContentValues values = new ContentValues();
+        values.put("uid", uid);
+        values.put("flags", flags);
+        values.put("rate_limit", rateLimit);
+        values.put("weight", weight);
+        String selection = "uid=?";
+        String[] selectionArgs = new String[]{String.valueOf(uid)};
+        if (database.update(UID_CONFIG_TABLE, values, selection, selectionArgs) <= 0) {
+            database.insertWithOnConflict(UID_CONFIG_TABLE, (String) null, values, SQLiteDatabase.CONFLICT_IGNORE);
+        }
+    }
+
     public static void removeUid(int uid) {
         SQLiteDatabase database = getDatabase();
         if (database == null) {
@@ -98,4 +141,22 @@ public class SuiDatabase {
         String[] selectionArgs = new String[]{String.valueOf(uid)};
         database.delete(UID_CONFIG_TABLE, selection, selectionArgs);
     }
+
+    public static void removeUids(List<Integer> uids) {
+        SQLiteDatabase database = getDatabase();
+        if (database == null) {
+            return;
+        }
+
+        String selection = "uid=?";
+        database.beginTransaction();
+        try {
+            for (int uid : uids) {
+                database.delete(UID_CONFIG_TABLE, selection, new String[]{String.valueOf(uid)});
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
 }
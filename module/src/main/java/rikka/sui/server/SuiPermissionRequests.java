@@ -0,0 +1,184 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package rikka.sui.server;
+
+import android.os.SystemClock;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import rikka.sui.util.DumpWriter;
+
+/**
+ * Pending permission requests, grouped by uid.
+ * <p>
+ * Only the first request of a uid shows a dialog, later requests from the same uid wait for
+ * its result. Requests that arrive when the manager is not attached are shown when it
+ * attaches.
+ */
+public class SuiPermissionRequests {
+
+    // A dialog that has not replied for this long is treated as lost and can be shown again
+    private static final long SHOWN_TIMEOUT_MILLIS = 5 * 60 * 1000;
+    private static final int MAX_REQUESTS_PER_UID = 64;
+
+    public static class Request {
+
+        public final int pid;
+        public final int requestCode;
+
+        Request(int pid, int requestCode) {
+            this.pid = pid;
+            this.requestCode = requestCode;
+        }
+    }
+
+    public static class Entry {
+
+        public final int uid;
+        public final String packageName;
+        final List<Request> requests = new ArrayList<>();
+        long shownAt = -1;
+
+        Entry(int uid, String packageName) {
+            this.uid = uid;
+            this.packageName = packageName;
+        }
+
+        /**
+         * The request whose pid and request code are shown in the dialog.
+         */
+        public Request getFirst() {
+            return requests.get(0);
+        }
+    }
+
+    private final SparseArray<Entry> entries = new SparseArray<>();
+
+    /**
+     * Add a request.
+     *
+     * @param show if a dialog can be shown now, the returned entry is marked as shown
+     * @return the entry if a dialog should be shown for it, or null if it joins a shown one or
+     * the dialog can't be shown now
+     */
+    public synchronized Entry add(int uid, int pid, int requestCode, String packageName, boolean show) {
+        Entry entry = entries.get(uid);
+        if (entry == null) {
+            entry = new Entry(uid, packageName);
+            entries.put(uid, entry);
+        }
+
+        if (entry.requests.size() < MAX_REQUESTS_PER_UID) {
+            entry.requests.add(new Request(pid, requestCode));
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        if (!show || entry.shownAt != -1 && now - entry.shownAt < SHOWN_TIMEOUT_MILLIS) {
+            return null;
+        }
+        entry.shownAt = now;
+        return entry;
+    }
+
+    /**
+     * Called when showing the dialog of entry fails.
+     */
+    public synchronized void setNotShown(Entry entry) {
+        entry.shownAt = -1;
+    }
+
+    /**
+     * Returns entries whose dialog has not been shown and marks them as shown, called when the
+     * manager attaches.
+     */
+    public synchronized List<Entry> takeNotShown() {
+        long now = SystemClock.elapsedRealtime();
+        List<Entry> list = new ArrayList<>();
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.valueAt(i);
+            if (entry.shownAt == -1) {
+                entry.shownAt = now;
+                list.add(entry);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Called when the manager dies, dialogs shown by it are gone.
+     */
+    public synchronized void resetShown() {
+        for (int i = 0; i < entries.size(); i++) {
+            entries.valueAt(i).shownAt = -1;
+        }
+    }
+
+    /**
+     * Remove and return all waiting requests of uid, called when the result arrives.
+     */
+    public synchronized List<Request> remove(int uid) {
+        Entry entry = entries.get(uid);
+        if (entry == null) {
+            return Collections.emptyList();
+        }
+        entries.remove(uid);
+        return entry.requests;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public void dump(DumpWriter dw) {
+        int[] uids;
+        String[] packageNames;
+        int[] counts;
+        long[] shownAt;
+        synchronized (this) {
+            int size = entries.size();
+            uids = new int[size];
+            packageNames = new String[size];
+            counts = new int[size];
+            shownAt = new long[size];
+            for (int i = 0; i < size; i++) {
+                Entry entry = entries.valueAt(i);
+                uids[i] = entry.uid;
+                packageNames[i] = entry.packageName;
+                counts[i] = entry.requests.size();
+                shownAt[i] = entry.shownAt;
+            }
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        dw.beginArray("permission_requests");
+        for (int i = 0; i < uids.length; i++) {
+            dw.beginItem("uid " + uids[i])
+                    .value("uid", uids[i])
+                    .value("package", packageNames[i])
+                    .value("requests", counts[i])
+                    .value("shown_ms_ago", shownAt[i] != -1 ? now - shownAt[i] : -1)
+                    .endObject();
+        }
+        dw.endArray();
+    }
+}
@@ -29,13 +29,13 @@ import static rikka.shizuku.ShizukuApiConstants.BIND_APPLICATION_SERVER_VERSION;
 import static rikka.shizuku.ShizukuApiConstants.BIND_APPLICATION_SHOULD_SHOW_REQUEST_PERMISSION_RATIONALE;
 import static rikka.shizuku.ShizukuApiConstants.REQUEST_PERMISSION_REPLY_ALLOWED;
 import static rikka.shizuku.ShizukuApiConstants.REQUEST_PERMISSION_REPLY_IS_ONETIME;
+import static rikka.sui.server.ServerConstants.TRACE;
 
 import android.content.Intent;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageInfoHidden;
 import android.content.pm.PackageManager;
-import android.net.Uri;
 import android.os.Binder;
 import android.os.Build;
 import android.os.Bundle;
@@ -44,20 +44,31 @@ import android.os.IBinder;
 import android.os.Looper;
 import android.os.Parcel;
 import android.os.ParcelFileDescriptor;
+import android.os.Process;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.system.ErrnoException;
 import android.system.Os;
 import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.OptIn;
 
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 
 import dev.rikka.tools.refine.Refine;
 import moe.shizuku.server.IShizukuApplication;
@@ -70,11 +81,16 @@ import rikka.shizuku.ShizukuApiConstants;
 import rikka.shizuku.server.ClientRecord;
 import rikka.shizuku.server.Service;
 import rikka.shizuku.server.util.HandlerUtil;
+import rikka.sui.BuildConfig;
 import rikka.sui.model.AppInfo;
+import rikka.sui.model.PackageChange;
 import rikka.sui.server.bridge.BridgeServiceClient;
+import rikka.sui.util.DumpWriter;
 import rikka.sui.util.Logger;
 import rikka.sui.util.MapUtil;
 import rikka.sui.util.OsUtils;
+import rikka.sui.util.Systrace;
+import rikka.sui.util.TraceBuffer;
 import rikka.sui.util.UserHandleCompat;
 
 @OptIn(markerClass = androidx.core.os.BuildCompat.PrereleaseSdkCheck.class)
@@ -82,12 +98,14 @@ public class SuiService extends Service<SuiUserServiceManager, SuiClientManager,
 
     private static SuiService instance;
     private static String filesPath;
+    private static long mainTime;
 
     public static SuiService getInstance() {
         return instance;
     }
 
     public static void main(String filesPath) {
+        mainTime = SystemClock.elapsedRealtime();
         LOGGER.i("starting server...");
 
         RishConfig.setLibraryPath(System.getProperty("sui.library.path"));
@@ -95,7 +113,9 @@ public class SuiService extends Service<SuiUserServiceManager, SuiClientManager,
         SuiService.filesPath = filesPath;
 
         Looper.prepareMainLooper();
+        Systrace.begin("Sui:SuiService.<init>");
         new SuiService();
+        Systrace.end();
         Looper.loop();
 
         LOGGER.i("server exited");
@@ -113,7 +133,19 @@ public class SuiService extends Service<SuiUserServiceManager, SuiClientManager,
     private IShizukuApplication systemUiApplication;
 
     private final Object managerBinderLock = new Object();
+    private final SuiPermissionRequests permissionRequests = new SuiPermissionRequests();
     private final Logger flog = new Logger("Sui", "/cache/sui.log");
+    private final SuiBinderThreads binderThreads = new SuiBinderThreads();
+    private final SuiTransactScheduler transactScheduler = new SuiTransactScheduler(binderThreads);
+    private final SuiTransactionStats transactionStats = new SuiTransactionStats(binderThreads);
+    // Boot phase -> elapsedRealtime
+    private final Map<String, Long> bootPhases = new ArrayMap<>();
+
+    private void markBootPhase(String phase) {
+        synchronized (bootPhases) {
+            bootPhases.put(phase, SystemClock.elapsedRealtime());
+        }
+    }
 
     private int waitForPackage(String packageName, boolean forever) {
         int uid;
@@ -150,8 +182,12 @@ public class SuiService extends Service<SuiUserServiceManager, SuiClientManager,
         clientManager = getClientManager();
         userServiceManager = getUserServiceManager();
 
+        transactionStats.scheduleWrite();
+        markBootPhase("created");
+
         systemUiUid = waitForPackage(MANAGER_APPLICATION_ID, true);
         settingsUid = waitForPackage(SETTINGS_APPLICATION_ID, true);
+        markBootPhase("packages_found");
 
         int gmsUid = waitForPackage("com.google.android.gms", false);
         if (gmsUid != 0) {
@@ -167,7 +203,9 @@ public class SuiService extends Service<SuiUserServiceManager, SuiClientManager,
             @Override
             public void onResponseFromBridgeService(boolean response) {
                 if (response) {
+                    markBootPhase("bridge_registered");
                     LOGGER.i("send service to bridge");
+                    userServiceManager.onBinderSentToBridge();
                 } else {
                     LOGGER.w("no response from bridge");
                 }
@@ -207,6 +245,15 @@ public class SuiService extends Service<SuiUserServiceManager, SuiClientManager,
 
     @Override
     public void attachApplication(IShizukuApplication application, Bundle args) {
+        Systrace.begin("Sui:attachApplication");
+        try {
+            attachApplicationInternal(application, args);
+        } finally {
+            Systrace.end();
+        }
+    }
+
+    private void attachApplicationInternal(IShizukuApplication application, Bundle args) {
         if (application == null || args == null) {
             return;
         }
@@ -222,6 +269,8 @@ public class SuiService extends Service<SuiUserServiceManager, SuiClientManager,
         boolean isManager, isSettings;
         ClientRecord clientRecord = null;
 
+        TRACE.record(TraceBuffer.EVENT_ATTACH_APPLICATION, callingUid, callingPid, apiVersion);
+
         List<String> packages = PackageManagerApis.getPackagesForUidNoThrow(callingUid);
         if (!packages.contains(requestPackageName)) {
             throw new SecurityException("Request package " + requestPackageName + "does not belong to uid " + callingUid);
@@ -242,6 +291,7 @@ public class SuiService extends Service<SuiUserServiceManager, SuiClientManager,
                         synchronized (managerBinderLock) {
                             if (systemUiApplication.asBinder() == binder) {
                                 systemUiApplication = null;
+                                permissionRequests.resetShown();
                             } else {
                                 flog.w("binderDied is called later than the arrival of the new binder ?!");
                             }
@@ -254,10 +304,17 @@ public class SuiService extends Service<SuiUserServiceManager, SuiClientManager,
                 LOGGER.w(e, "attachApplication");
             }
 
+            List<SuiPermissionRequests.Entry> pending;
             synchronized (managerBinderLock) {
                 systemUiApplication = application;
+                pending = permissionRequests.takeNotShown();
                 flog.i("manager attached: pid=%d", callingPid);
             }
+
+            // The manager attaches once it is able to show dialogs
+            for (SuiPermissionRequests.Entry entry : pending) {
+                showPermissionConfirmation(application, entry);
+            }
         }
 
         if (!isManager && !isSettings) {
@@ -300,14 +357,31 @@ public class SuiService extends Service<SuiUserServiceManager, SuiClientManager,
 
     @Override
     public void showPermissionConfirmation(int requestCode, @NonNull ClientRecord clientRecord, int callingUid, int callingPid, int userId) {
-        if (systemUiApplication != null) {
-            try {
-                systemUiApplication.showPermissionConfirmation(callingUid, callingPid, clientRecord.packageName, requestCode);
-            } catch (Throwable e) {
-                LOGGER.w(e, "showPermissionConfirmation");
-            }
+        TRACE.record(TraceBuffer.EVENT_REQUEST_PERMISSION, callingUid, callingPid, requestCode);
+
+        IShizukuApplication manager;
+        SuiPermissionRequests.Entry entry;
+        synchronized (managerBinderLock) {
+            manager = systemUiApplication;
+            entry = permissionRequests.add(callingUid, callingPid, requestCode, clientRecord.packageName, manager != null);
+        }
+
+        if (manager == null) {
+            LOGGER.i("manager is not ready, queue permission request from uid %d", callingUid);
+        } else if (entry == null) {
+            LOGGER.i("permission request from uid %d pid %d joins the shown one", callingUid, callingPid);
         } else {
-            LOGGER.e("manager is null");
+            showPermissionConfirmation(manager, entry);
+        }
+    }
+
+    private void showPermissionConfirmation(IShizukuApplication manager, SuiPermissionRequests.Entry entry) {
+        SuiPermissionRequests.Request request = entry.getFirst();
+        try {
+            manager.showPermissionConfirmation(entry.uid, request.pid, entry.packageName, request.requestCode);
+        } catch (Throwable e) {
+            LOGGER.w(e, "showPermissionConfirmation");
+            permissionRequests.setNotShown(entry);
         }
     }
 
@@ -326,6 +400,27 @@ public class SuiService extends Service<SuiUserServiceManager, SuiClientManager,
         return uid != systemUiUid && uid != settingsUid && configManager.isHidden(uid);
     }
 
+    /**
+     * Hidden uids are published to the bridge in system_server, so that it can answer
+     * GET_BINDER without calling back into this process.
+     */
+    public int[] getHiddenUids() {
+        int[] uids = configManager.getHiddenUids();
+        int count = 0;
+        for (int uid : uids) {
+            if (uid != systemUiUid && uid != settingsUid) {
+                uids[count++] = uid;
+            }
+        }
+        uids = Arrays.copyOf(uids, count);
+        Arrays.sort(uids);
+        return uids;
+    }
+
+    private void publishHiddenUids() {
+        BridgeServiceClient.updateHiddenUids(getHiddenUids());
+    }
+
     @Override
     public void dispatchPermissionConfirmationResult(int requestUid, int requestPid, int requestCode, Bundle data) {
         if (Binder.getCallingUid() != systemUiUid) {
@@ -340,17 +435,29 @@ public class SuiService extends Service<SuiUserServiceManager, SuiClientManager,
         boolean allowed = data.getBoolean(REQUEST_PERMISSION_REPLY_ALLOWED);
         boolean onetime = data.getBoolean(REQUEST_PERMISSION_REPLY_IS_ONETIME);
 
+        TRACE.record(TraceBuffer.EVENT_PERMISSION_RESULT, requestUid, requestPid, allowed ? 1 : 0);
         LOGGER.i("dispatchPermissionConfirmationResult: uid=%d, pid=%d, requestCode=%d, allowed=%s, onetime=%s",
                 requestUid, requestPid, requestCode, Boolean.toString(allowed), Boolean.toString(onetime));
 
+        // All requests of the uid that wait for this dialog
+        List<SuiPermissionRequests.Request> requests = permissionRequests.remove(requestUid);
+
         List<ClientRecord> records = clientManager.findClients(requestUid);
         if (records.isEmpty()) {
             LOGGER.w("dispatchPermissionConfirmationResult: no client for uid %d was found", requestUid);
         } else {
             for (ClientRecord record : records) {
                 record.allowed = allowed;
-                if (record.pid == requestPid) {
-                    record.dispatchRequestPermissionResult(requestCode, allowed);
+                if (requests.isEmpty()) {
+                    if (record.pid == requestPid) {
+                        record.dispatchRequestPermissionResult(requestCode, allowed);
+                    }
+                    continue;
+                }
+                for (SuiPermissionRequests.Request request : requests) {
+                    if (record.pid == request.pid) {
+                        record.dispatchRequestPermissionResult(request.requestCode, allowed);
+                    }
                 }
             }
         }
@@ -383,6 +490,10 @@ public class SuiService extends Service<SuiUserServiceManager, SuiClientManager,
 
         configManager.update(uid, mask, value);
 
+        if ((mask & SuiConfig.FLAG_HIDDEN) != 0 && wasHidden != ((value & SuiConfig.FLAG_HIDDEN) != 0)) {
+            publishHiddenUids();
+        }
+
         if ((mask & SuiConfig.MASK_PERMISSION) != 0) {
             boolean allowed = (value & SuiConfig.FLAG_ALLOWED) != 0;
             for (ClientRecord record : clientManager.findClients(uid)) {
@@ -398,27 +509,50 @@ public class SuiService extends Service<SuiUserServiceManager, SuiClientManager,
 
     @Override
     public void dispatchPackageChanged(Intent intent) {
+        if (intent == null) {
+            return;
+        }
+
+        PackageChange change = PackageChange.fromIntent(intent);
+        if (change != null) {
+            List<PackageChange> changes = new ArrayList<>();
+            changes.add(change);
+            dispatchPackagesChanged(changes);
+        }
+    }
+
+    private void dispatchPackagesChanged(List<PackageChange> changes) {
         int callingUid = Binder.getCallingUid();
         if (callingUid != 1000 && callingUid != 0) {
             return;
         }
-        if (intent == null) {
+        if (changes == null || changes.isEmpty()) {
             return;
         }
+        TRACE.record(TraceBuffer.EVENT_PACKAGES_CHANGED, callingUid, Binder.getCallingPid(), changes.size());
+
+        List<Integer> removedUids = new ArrayList<>();
+        Set<String> removedPackages = new ArraySet<>();
 
-        String action = intent.getAction();
-        int uid = intent.getIntExtra(Intent.EXTRA_UID, -1);
-        boolean replacing = intent.getBooleanExtra(Intent.EXTRA_REPLACING, false);
-        if (Intent.ACTION_PACKAGE_REMOVED.equals(action) && uid > 0 & !replacing) {
-            LOGGER.i("uid %d is removed", uid);
-            configManager.remove(uid);
-        } else if (Intent.ACTION_PACKAGE_FULLY_REMOVED.equals(action) && !replacing) {
-            Uri uri = intent.getData();
-            String packageName = (uri != null) ? uri.getSchemeSpecificPart() : null;
-            if (packageName != null) {
-                userServiceManager.removeUserServicesForPackage(packageName);
+        for (PackageChange change : changes) {
+            if (change.replacing) {
+                continue;
+            }
+            if (change.action == PackageChange.ACTION_REMOVED && change.uid > 0) {
+                LOGGER.i("uid %d is removed", change.uid);
+                removedUids.add(change.uid);
+            } else if (change.action == PackageChange.ACTION_FULLY_REMOVED && change.packageName != null) {
+                removedPackages.add(change.packageName);
             }
         }
+
+        if (!removedUids.isEmpty()) {
+            configManager.remove(removedUids);
+            publishHiddenUids();
+        }
+        for (String packageName : removedPackages) {
+            userServiceManager.removeUserServicesForPackage(packageName);
+        }
     }
 
     private ParcelableListSlice<AppInfo> getApplications(int userId) {
@@ -466,7 +600,9 @@ public class SuiService extends Service<SuiUserServiceManager, SuiClientManager,
                     // Uninstalled but keep data: !hasApk && hasData
                     // Installed in other users only: hasApk && !hasData
                     if (!(hasApk && hasData)) {
-                        LOGGER.v("skip %d:%s: hasApk=%s, hasData=%s", user, pi.packageName, Boolean.toString(hasApk), Boolean.toString(hasData));
+                        if (LOGGER.isLoggable(Log.VERBOSE)) {
+                            LOGGER.v("skip %d:%s: hasApk=%s, hasData=%s", user, pi.packageName, Boolean.toString(hasApk), Boolean.toString(hasData));
+                        }
                         continue;
                     }
 
@@ -495,7 +631,9 @@ public class SuiService extends Service<SuiUserServiceManager, SuiClientManager,
 
                     // Packages without components cannot run as themselves
                     if (!hasComponents) {
-                        LOGGER.v("skip %d:%s: hasComponents=false", user, pi.packageName);
+                        if (LOGGER.isLoggable(Log.VERBOSE)) {
+                            LOGGER.v("skip %d:%s: hasComponents=false", user, pi.packageName);
+                        }
                         continue;
                     }
                 }
@@ -552,13 +690,173 @@ public class SuiService extends Service<SuiUserServiceManager, SuiClientManager,
         }
     }
 
+    private void transactRemoteBatch(Parcel data, Parcel reply) {
+        enforceCallingPermission("transactRemote");
+
+        int count = data.readInt();
+        if (count < 0 || count > ServerConstants.TRANSACT_BATCH_MAX_ENTRIES) {
+            throw new IllegalArgumentException("Batch of " + count + " calls, at most "
+                    + ServerConstants.TRANSACT_BATCH_MAX_ENTRIES + " are allowed");
+        }
+
+        // Read the whole batch first, so a malformed one fails before anything is called
+        IBinder[] targets = new IBinder[count];
+        int[] codes = new int[count];
+        int[] flags = new int[count];
+        int[] positions = new int[count];
+        int[] sizes = new int[count];
+        for (int i = 0; i < count; i++) {
+            targets[i] = data.readStrongBinder();
+            codes[i] = data.readInt();
+            flags[i] = data.readInt();
+            sizes[i] = data.readInt();
+            positions[i] = data.dataPosition();
+            if (targets[i] == null || sizes[i] < 0 || sizes[i] > data.dataAvail()) {
+                throw new IllegalArgumentException("Malformed call " + i + " of batch");
+            }
+            data.setDataPosition(positions[i] + sizes[i]);
+        }
+
+        int callingUid = Binder.getCallingUid();
+        boolean scheduled = count > 0 && enterTransactScheduler(callingUid, count);
+        try {
+            runBatch(data, reply, count, targets, codes, flags, positions, sizes);
+        } finally {
+            if (scheduled) {
+                transactScheduler.exit(callingUid);
+            }
+        }
+    }
+
+    /**
+     * @return if {@link SuiTransactScheduler#exit(int)} must follow
+     */
+    private boolean enterTransactScheduler(int uid, int cost) {
+        boolean limited = configManager.hasLimits();
+        if (!limited && !transactScheduler.isEnabled()) {
+            // Nothing to enforce, don't take the locks of the config and the scheduler
+            return false;
+        }
+        transactScheduler.enter(uid, limited ? configManager.find(uid) : null, cost);
+        return true;
+    }
+
+    private void setTransactLimits(int uid, int rateLimit, int weight) {
+        if (Binder.getCallingUid() != 0) {
+            throw new SecurityException("Only root can change limits");
+        }
+
+        configManager.updateLimits(uid, Math.max(0, rateLimit), Math.max(-1, weight));
+        LOGGER.i("uid %d: rate limit set to %d/s", uid, Math.max(0, rateLimit));
+    }
+
+    private static void runBatch(Parcel data, Parcel reply, int count, IBinder[] targets, int[] codes, int[] flags, int[] positions, int[] sizes) {
+        int replyStart = reply.dataPosition();
+        reply.writeNoException();
+        reply.writeInt(count);
+        boolean truncated = false;
+        for (int i = 0; i < count; i++) {
+            if (truncated) {
+                reply.writeInt(ServerConstants.TRANSACT_BATCH_SKIPPED);
+                continue;
+            }
+
+            int entryStart = reply.dataPosition();
+
+            boolean oneway = (flags[i] & IBinder.FLAG_ONEWAY) != 0;
+            Parcel newData = Parcel.obtain();
+            Parcel newReply = oneway ? null : Parcel.obtain();
+            long id = Binder.clearCallingIdentity();
+            try {
+                newData.appendFrom(data, positions[i], sizes[i]);
+                newData.setDataPosition(0);
+                if (!targets[i].transact(codes[i], newData, newReply, flags[i])) {
+                    throw new UnsupportedOperationException("Unknown transaction code " + codes[i]);
+                }
+                int size = newReply != null ? newReply.dataSize() : 0;
+                reply.writeInt(ServerConstants.TRANSACT_BATCH_OK);
+                reply.writeInt(size);
+                if (size > 0) {
+                    reply.appendFrom(newReply, 0, size);
+                }
+            } catch (Throwable e) {
+                reply.writeInt(ServerConstants.TRANSACT_BATCH_FAILED);
+                reply.writeString(e.toString());
+            } finally {
+                Binder.restoreCallingIdentity(id);
+                newData.recycle();
+                if (newReply != null) {
+                    newReply.recycle();
+                }
+            }
+
+            // Everything written counts, and room is kept for the status of every later entry.
+            // The binder buffer can't take the reply with this one, the rest is not called.
+            if (reply.dataPosition() - replyStart + (count - i - 1) * 4 > ServerConstants.TRANSACT_BATCH_MAX_REPLY_SIZE) {
+                reply.setDataSize(entryStart);
+                reply.setDataPosition(entryStart);
+                reply.writeInt(ServerConstants.TRANSACT_BATCH_TRUNCATED);
+                truncated = true;
+            }
+        }
+    }
+
     @Override
     public boolean onTransact(int code, Parcel data, Parcel reply, int flags) throws RemoteException {
+        long start = SuiTransactionStats.start();
+        String targetDescriptor = null;
+        int targetCode = -1;
+        int cost = 0;
+        if (code == ShizukuApiConstants.BINDER_TRANSACTION_transact) {
+            // The layout is the interface token, the binder, the code, the flags, and the
+            // payload, which starts with the interface token of the target
+            int position = data.dataPosition();
+            try {
+                data.enforceInterface(ShizukuApiConstants.BINDER_DESCRIPTOR);
+                data.readStrongBinder();
+                targetCode = data.readInt();
+                data.readInt();
+                targetDescriptor = SuiTransactionStats.peekDescriptor(data, targetCode);
+            } catch (Throwable ignored) {
+            } finally {
+                data.setDataPosition(position);
+            }
+            cost = 1;
+        }
+        // A batch is scheduled by transactRemoteBatch once it's validated, by its real count
+
+        int callingUid = Binder.getCallingUid();
+        binderThreads.enter(callingUid);
+        boolean scheduled = false;
+        try {
+            if (cost > 0) {
+                scheduled = enterTransactScheduler(callingUid, cost);
+            }
+            return onTransactInternal(code, data, reply, flags);
+        } finally {
+            if (scheduled) {
+                transactScheduler.exit(callingUid);
+            }
+            binderThreads.exit(callingUid);
+            transactionStats.record(callingUid, code, targetCode, targetDescriptor, start);
+            if (code == ShizukuApiConstants.BINDER_TRANSACTION_transact) {
+                TRACE.record(TraceBuffer.EVENT_TRANSACT_REMOTE, callingUid, Binder.getCallingPid(), targetCode, start);
+            }
+        }
+    }
+
+    private boolean onTransactInternal(int code, Parcel data, Parcel reply, int flags) throws RemoteException {
         //LOGGER.d("transact: code=%d, calling uid=%d", code, Binder.getCallingUid());
         if (code == ServerConstants.BINDER_TRANSACTION_getApplications) {
             data.enforceInterface(ShizukuApiConstants.BINDER_DESCRIPTOR);
             int userId = data.readInt();
-            ParcelableListSlice<AppInfo> result = getApplications(userId);
+            ParcelableListSlice<AppInfo> result;
+            Systrace.begin("Sui:getApplications");
+            try {
+                result = getApplications(userId);
+            } finally {
+                Systrace.end();
+            }
             reply.writeNoException();
             if (result != null) {
                 reply.writeInt(1);
@@ -582,10 +880,153 @@ public class SuiService extends Service<SuiUserServiceManager, SuiClientManager,
                 reply.writeInt(0);
             }
             return true;
+        } else if (code == ServerConstants.BINDER_TRANSACTION_dispatchPackagesChanged) {
+            data.enforceInterface(ShizukuApiConstants.BINDER_DESCRIPTOR);
+            dispatchPackagesChanged(data.createTypedArrayList(PackageChange.CREATOR));
+            return true;
+        } else if (code == ServerConstants.BINDER_TRANSACTION_transactRemoteBatch) {
+            data.enforceInterface(ShizukuApiConstants.BINDER_DESCRIPTOR);
+            Systrace.begin("Sui:transactRemoteBatch");
+            try {
+                transactRemoteBatch(data, reply);
+            } finally {
+                Systrace.end();
+            }
+            return true;
+        } else if (code == ServerConstants.BINDER_TRANSACTION_setTransactLimits) {
+            data.enforceInterface(ShizukuApiConstants.BINDER_DESCRIPTOR);
+            setTransactLimits(data.readInt(), data.readInt(), data.readInt());
+            reply.writeNoException();
+            return true;
         }
         return super.onTransact(code, data, reply, flags);
     }
 
+    private void dumpTrace(@NonNull FileDescriptor fd, @NonNull PrintWriter pw, @NonNull String[] args) {
+        boolean binary = false;
+        boolean bridge = false;
+        for (int i = 1; i < args.length; i++) {
+            if ("--binary".equals(args[i])) {
+                binary = true;
+            } else if ("--bridge".equals(args[i])) {
+                bridge = true;
+            }
+        }
+
+        byte[] bytes = bridge ? BridgeServiceClient.dumpTrace() : TRACE.toByteArray();
+        if (bytes == null) {
+            pw.println("Trace of the bridge is not available");
+            return;
+        }
+
+        if (binary) {
+            pw.flush();
+            try {
+                FileOutputStream os = new FileOutputStream(fd);
+                os.write(bytes);
+                os.flush();
+            } catch (IOException e) {
+                LOGGER.w(e, "dump trace");
+            }
+        } else if (bridge) {
+            pw.println("Bridge trace:");
+            TraceBuffer.dump(pw, bytes);
+        } else {
+            pw.println("Server trace:");
+            TRACE.dump(pw);
+        }
+    }
+
+    private void dumpLimit(@NonNull PrintWriter pw, @NonNull String[] args) {
+        // Dump is read-only, changes go through BINDER_TRANSACTION_setTransactLimits
+        if (args.length != 2) {
+            pw.println("usage: limit <uid>");
+            return;
+        }
+
+        int uid;
+        try {
+            uid = Integer.parseInt(args[1]);
+        } catch (NumberFormatException e) {
+            pw.println("Invalid number: " + e.getMessage());
+            return;
+        }
+
+        SuiConfig.PackageEntry entry = configManager.find(uid);
+        pw.printf(Locale.ENGLISH, "uid %d: rate limit %d/s, weight %d (0 is the default)%n",
+                uid, entry != null ? entry.rateLimit : 0, entry != null ? entry.weight : 0);
+    }
+
+    @Override
+    protected void dump(@NonNull FileDescriptor fd, @NonNull PrintWriter pw, @Nullable String[] args) {
+        int callingUid = Binder.getCallingUid();
+        if (callingUid != 0 && callingUid != 2000) {
+            pw.println("Permission Denial: can't dump Sui from uid " + callingUid);
+            return;
+        }
+
+        if (args != null && args.length > 0 && "trace".equals(args[0])) {
+            dumpTrace(fd, pw, args);
+            return;
+        }
+        if (args != null && args.length > 0 && "stats".equals(args[0])) {
+            transactionStats.dump(pw);
+            return;
+        }
+        if (args != null && args.length > 0 && "limit".equals(args[0])) {
+            dumpLimit(pw, args);
+            return;
+        }
+
+        boolean json = args != null && Arrays.asList(args).contains("--json");
+        DumpWriter dw = new DumpWriter(pw, json);
+        dw.beginObject(json ? null : "Sui");
+        dumpServer(dw);
+        clientManager.dump(dw);
+        configManager.dump(dw);
+        permissionRequests.dump(dw);
+        userServiceManager.dump(dw);
+        binderThreads.dump(dw);
+        transactScheduler.dump(dw);
+        transactionStats.dumpSummary(dw, 10);
+        dw.endObject();
+        dw.flush();
+    }
+
+    private void dumpServer(DumpWriter dw) {
+        long now = SystemClock.elapsedRealtime();
+        long processStart = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N ? Process.getStartElapsedRealtime() : mainTime;
+        Map<String, Long> phases = new ArrayMap<>();
+        synchronized (bootPhases) {
+            phases.putAll(bootPhases);
+        }
+
+        dw.beginObject("server")
+                .value("version", BuildConfig.VERSION_NAME)
+                .value("pid", OsUtils.getPid())
+                .value("uid", OsUtils.getUid())
+                .value("secontext", OsUtils.getSELinuxContext())
+                .value("uptime_ms", now - processStart)
+                .value("systemui_uid", systemUiUid)
+                .value("settings_uid", settingsUid)
+                .value("manager_attached", systemUiApplication != null);
+
+        // Times since the process started
+        dw.beginObject("boot_ms");
+        dw.value("main", mainTime - processStart);
+        for (Map.Entry<String, Long> entry : phases.entrySet()) {
+            dw.value(entry.getKey(), entry.getValue() - processStart);
+        }
+        dw.endObject();
+        dw.endObject();
+
+        dw.beginObject("bridge")
+                .value("registered", BridgeServiceClient.isRegistered())
+                .value("system_server_restarts", BridgeServiceClient.getRestartCount())
+                .value("last_reattach_ms", BridgeServiceClient.getLastReattachMillis())
+                .endObject();
+    }
+
     @Override
     public void exit() {
 
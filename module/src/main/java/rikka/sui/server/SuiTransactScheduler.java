@@ -0,0 +1,252 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+
+package rikka.sui.server;
+
+import static rikka.sui.server.ServerConstants.LOGGER;
+
+import android.os.Build;
+import android.os.ServiceSpecificException;
+import android.os.SystemClock;
+import android.os.SystemProperties;
+import android.util.SparseArray;
+
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.TimeUnit;
+
+import rikka.sui.util.DumpWriter;
+
+/**
+ * Rate limiting and fair sharing of transactRemote between uids.
+ * <p>
+ * Each uid has a token bucket filled at its {@link SuiConfig.PackageEntry#rateLimit}, or at
+ * {@code persist.sui.transact.rate} if that is 0, holding up to one second of calls. There is
+ * no limit if both are 0. A call without a token waits for one if it comes within
+ * {@code persist.sui.transact.max_delay_ms} (default 100), otherwise it's rejected. A batch
+ * larger than the bucket only waits for a full bucket and leaves the bucket in debt, so later
+ * calls of the uid wait or are rejected until it's paid back.
+ * <p>
+ * The wait holds the binder thread of the call, but the call is not counted in flight, or in
+ * the share of the uid, until the wait is over.
+ * <p>
+ * If {@code persist.sui.transact.fair_share} is set, once transactRemote calls occupy all but
+ * two binder threads, a uid may only keep its share of them, by {@link SuiConfig.PackageEntry#weight},
+ * and calls over it are rejected.
+ * <p>
+ * Rejected calls throw {@link ServiceSpecificException} with
+ * {@link ServerConstants#TRANSACT_ERROR_RATE_LIMITED} or {@link ServerConstants#TRANSACT_ERROR_OVER_SHARE},
+ * or {@link IllegalStateException} before Android 7.0. Root and system are never limited.
+ */
+public class SuiTransactScheduler {
+
+    private static final String PROP_RATE = "persist.sui.transact.rate";
+    private static final String PROP_MAX_DELAY = "persist.sui.transact.max_delay_ms";
+    private static final String PROP_FAIR_SHARE = "persist.sui.transact.fair_share";
+
+    private static final int RESERVED_THREADS = 2;
+
+    private static class Bucket {
+
+        double tokens;
+        long refillTime;
+        int weight = 1;
+        int inFlight;
+        long admitted;
+        long delayed;
+        long rejected;
+    }
+
+    private final SuiBinderThreads binderThreads;
+    private final int defaultRate;
+    private final long maxDelayNanos;
+    private final boolean fairShare;
+
+    private final SparseArray<Bucket> buckets = new SparseArray<>();
+    private int inFlight;
+
+    public SuiTransactScheduler(SuiBinderThreads binderThreads) {
+        this.binderThreads = binderThreads;
+        this.defaultRate = Math.max(0, SystemProperties.getInt(PROP_RATE, 0));
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, SystemProperties.getInt(PROP_MAX_DELAY, 100)));
+        this.fairShare = SystemProperties.getBoolean(PROP_FAIR_SHARE, false);
+        LOGGER.i("transact scheduler: default rate %d, max delay %d ms, fair share %s",
+                defaultRate, TimeUnit.NANOSECONDS.toMillis(maxDelayNanos), Boolean.toString(fairShare));
+    }
+
+    /**
+     * Returns if there is a default rate or fair sharing. If not, and no uid has its own limits,
+     * there is nothing to enforce and {@link #enter(int, SuiConfig.PackageEntry, int)} can be
+     * skipped.
+     */
+    public boolean isEnabled() {
+        return defaultRate > 0 || fairShare;
+    }
+
+    private static boolean isExempt(int uid) {
+        return uid == 0 || uid == 1000;
+    }
+
+    private static RuntimeException newException(int error, String message) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            return new ServiceSpecificException(error, message);
+        }
+        return new IllegalStateException(message);
+    }
+
+    private int getCapacity() {
+        return Math.max(1, binderThreads.getThreads() - RESERVED_THREADS);
+    }
+
+    private int getShareLocked(Bucket bucket) {
+        int totalWeight = bucket.inFlight == 0 ? bucket.weight : 0;
+        for (int i = 0; i < buckets.size(); i++) {
+            Bucket b = buckets.valueAt(i);
+            if (b.inFlight > 0) {
+                totalWeight += b.weight;
+            }
+        }
+        return Math.max(1, (int) ((long) getCapacity() * bucket.weight / totalWeight));
+    }
+
+    /**
+     * Called before a transactRemote call of uid, {@link #exit(int)} must follow if it returns
+     * normally. May sleep until the uid has enough tokens.
+     *
+     * @param cost number of calls, more than one for a batch
+     */
+    public void enter(int uid, @Nullable SuiConfig.PackageEntry entry, int cost) {
+        if (isExempt(uid)) {
+            return;
+        }
+
+        int rate = entry != null && entry.rateLimit > 0 ? entry.rateLimit : defaultRate;
+        long delayNanos = 0;
+        synchronized (this) {
+            Bucket bucket = buckets.get(uid);
+            if (bucket == null) {
+                bucket = new Bucket();
+                bucket.tokens = rate;
+                bucket.refillTime = SystemClock.elapsedRealtimeNanos();
+                buckets.put(uid, bucket);
+            }
+            bucket.weight = entry != null && entry.weight > 0 ? entry.weight : 1;
+
+            if (rate > 0) {
+                long now = SystemClock.elapsedRealtimeNanos();
+                bucket.tokens = Math.min(rate, bucket.tokens + (now - bucket.refillTime) * rate / 1e9);
+                bucket.refillTime = now;
+
+                // The bucket never holds more than rate tokens
+                int required = Math.min(cost, rate);
+                if (bucket.tokens < required) {
+                    delayNanos = (long) ((required - bucket.tokens) * 1e9 / rate);
+                    if (delayNanos > maxDelayNanos) {
+                        bucket.rejected++;
+                        throw newException(ServerConstants.TRANSACT_ERROR_RATE_LIMITED,
+                                "uid " + uid + " is over its rate limit of " + rate + "/s");
+                    }
+                    bucket.delayed++;
+                }
+                // Taken even when waiting, so later calls wait behind this one
+                bucket.tokens -= cost;
+            }
+        }
+
+        if (delayNanos > 0) {
+            try {
+                Thread.sleep(TimeUnit.NANOSECONDS.toMillis(delayNanos), (int) (delayNanos % 1000000));
+            } catch (InterruptedException ignored) {
+            }
+        }
+
+        synchronized (this) {
+            Bucket bucket = buckets.get(uid);
+            if (fairShare && inFlight >= getCapacity() && bucket.inFlight >= getShareLocked(bucket)) {
+                if (rate > 0) {
+                    // Not run, give the tokens back
+                    bucket.tokens = Math.min(rate, bucket.tokens + cost);
+                }
+                bucket.rejected++;
+                throw newException(ServerConstants.TRANSACT_ERROR_OVER_SHARE,
+                        "uid " + uid + " is over its share of the server");
+            }
+
+            bucket.inFlight++;
+            bucket.admitted++;
+            inFlight++;
+        }
+    }
+
+    public void exit(int uid) {
+        if (isExempt(uid)) {
+            return;
+        }
+
+        synchronized (this) {
+            Bucket bucket = buckets.get(uid);
+            if (bucket != null) {
+                bucket.inFlight--;
+            }
+            inFlight--;
+        }
+    }
+
+    public void dump(DumpWriter dw) {
+        int size;
+        int[] uids;
+        long[][] values;
+        int totalInFlight;
+        synchronized (this) {
+            size = buckets.size();
+            uids = new int[size];
+            values = new long[size][];
+            for (int i = 0; i < size; i++) {
+                Bucket bucket = buckets.valueAt(i);
+                uids[i] = buckets.keyAt(i);
+                values[i] = new long[]{bucket.weight, bucket.inFlight, bucket.admitted, bucket.delayed, bucket.rejected,
+                        (long) Math.floor(bucket.tokens)};
+            }
+            totalInFlight = inFlight;
+        }
+
+        dw.beginObject("transact_scheduler")
+                .value("default_rate", defaultRate)
+                .value("max_delay_ms", TimeUnit.NANOSECONDS.toMillis(maxDelayNanos))
+                .value("fair_share", fairShare)
+                .value("capacity", getCapacity())
+                .value("in_flight", totalInFlight);
+        dw.beginArray("uids");
+        for (int i = 0; i < size; i++) {
+            long[] v = values[i];
+            dw.beginItem("uid " + uids[i])
+                    .value("uid", uids[i])
+                    .value("weight", v[0])
+                    .value("in_flight", v[1])
+                    .value("admitted", v[2])
+                    .value("delayed", v[3])
+                    .value("rejected", v[4])
+                    .value("tokens", v[5])
+                    .endObject();
+        }
+        dw.endArray();
+        dw.endObject();
+    }
+}
@@ -0,0 +1,416 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package rikka.sui.server;
+
+import static rikka.sui.server.ServerConstants.LOGGER;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.Parcel;
+import android.os.SystemClock;
+import android.os.SystemProperties;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import rikka.shizuku.ShizukuApiConstants;
+import rikka.sui.util.DumpWriter;
+
+/**
+ * Counters and latency histograms of binder transactions to the server, keyed by the calling
+ * uid, the transaction code and, for transactRemote, the code and the interface descriptor of
+ * the target. The descriptor is read from the interface token of the payload, it's never
+ * resolved by a transaction to the target.
+ * <p>
+ * Each entry is striped by the calling thread, so binder threads serving the same key don't
+ * write to the same counters. The stripes are only summed when the stats are dumped.
+ * <p>
+ * If {@code persist.sui.stats.write_interval} is set to a number of seconds, the stats are also
+ * written to {@code /data/adb/sui/stats.txt} with this interval.
+ */
+public class SuiTransactionStats {
+
+    private static final String PROP_WRITE_INTERVAL = "persist.sui.stats.write_interval";
+    private static final String STATS_PATH = "/data/adb/sui/stats.txt";
+
+    // Keys over this are counted under the overflow key of the uid, the key is chosen by the
+    // client, and the caller may not have passed any permission check
+    private static final int MAX_ENTRIES = 1024;
+    private static final int CODE_OVERFLOW = -1;
+    // Codes which are not a method of the service, counted under one key
+    private static final int CODE_OTHER = -2;
+    // Methods of IShizukuService, with room for the ones added later
+    private static final int MAX_AIDL_CODES = 64;
+
+    private static final int STRIPES = 4;
+    private static final long[] BUCKETS_MICROS = {50, 100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000};
+
+    // Layout of a stripe: count, total nanos, max nanos, then the buckets
+    private static final int COUNT = 0;
+    private static final int TOTAL = 1;
+    private static final int MAX = 2;
+    private static final int BUCKET = 3;
+    private static final int STRIPE_SIZE = BUCKET + BUCKETS_MICROS.length + 1;
+
+    // Longer ones are not a real descriptor
+    private static final int MAX_DESCRIPTOR_LENGTH = 256;
+
+    private static class Key {
+
+        final int uid;
+        final int code;
+        final int targetCode;
+        final String descriptor;
+
+        Key(int uid, int code, int targetCode, String descriptor) {
+            this.uid = uid;
+            this.code = code;
+            this.targetCode = targetCode;
+            this.descriptor = descriptor;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return uid == key.uid && code == key.code && targetCode == key.targetCode && Objects.equals(descriptor, key.descriptor);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = uid;
+            result = 31 * result + code;
+            result = 31 * result + targetCode;
+            result = 31 * result + (descriptor != null ? descriptor.hashCode() : 0);
+            return result;
+        }
+    }
+
+    private static class Entry {
+
+        final Key key;
+        final AtomicLongArray values = new AtomicLongArray(STRIPES * STRIPE_SIZE);
+
+        Entry(Key key) {
+            this.key = key;
+        }
+
+        void add(long nanos) {
+            int base = (int) (Thread.currentThread().getId() & (STRIPES - 1)) * STRIPE_SIZE;
+            long micros = nanos / 1000;
+            int i = 0;
+            while (i < BUCKETS_MICROS.length && micros > BUCKETS_MICROS[i]) {
+                i++;
+            }
+
+            values.incrementAndGet(base + COUNT);
+            values.addAndGet(base + TOTAL, nanos);
+            values.incrementAndGet(base + BUCKET + i);
+            long max;
+            while ((max = values.get(base + MAX)) < nanos) {
+                if (values.compareAndSet(base + MAX, max, nanos)) break;
+            }
+        }
+
+        long[] sum() {
+            long[] sum = new long[STRIPE_SIZE];
+            for (int stripe = 0; stripe < STRIPES; stripe++) {
+                int base = stripe * STRIPE_SIZE;
+                for (int i = 0; i < STRIPE_SIZE; i++) {
+                    long value = values.get(base + i);
+                    if (i == MAX) {
+                        sum[i] = Math.max(sum[i], value);
+                    } else {
+                        sum[i] += value;
+                    }
+                }
+            }
+            return sum;
+        }
+    }
+
+    private final SuiBinderThreads binderThreads;
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final long startTime = SystemClock.elapsedRealtime();
+
+    private final Runnable writeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            long interval = getWriteIntervalMillis();
+            if (interval <= 0) {
+                return;
+            }
+            write();
+            handler.postDelayed(this, interval);
+        }
+    };
+
+    public SuiTransactionStats(SuiBinderThreads binderThreads) {
+        this.binderThreads = binderThreads;
+    }
+
+    private static long getWriteIntervalMillis() {
+        return SystemProperties.getLong(PROP_WRITE_INTERVAL, 0) * 1000;
+    }
+
+    public static long start() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Read the interface descriptor of the target from the payload of transactRemote, which
+     * starts with the interface token written by the client. The position of data is kept.
+     *
+     * @param targetCode code of the transaction to target, tokens are only written for the
+     *                   codes of AIDL methods
+     * @return the descriptor, or null if the payload does not start with an interface token
+     */
+    public static String peekDescriptor(Parcel data, int targetCode) {
+        if (targetCode < IBinder.FIRST_CALL_TRANSACTION || targetCode > IBinder.LAST_CALL_TRANSACTION) {
+            return null;
+        }
+
+        int position = data.dataPosition();
+        try {
+            // Strict mode policy, then the work source uid from Q, then the header from R
+            data.readInt();
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                data.readInt();
+            }
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+                data.readInt();
+            }
+            String descriptor = data.readString();
+            if (descriptor == null || descriptor.isEmpty() || descriptor.length() > MAX_DESCRIPTOR_LENGTH) {
+                return null;
+            }
+            return descriptor;
+        } catch (Throwable e) {
+            return null;
+        } finally {
+            data.setDataPosition(position);
+        }
+    }
+
+    public void record(int uid, int code, long start) {
+        record(uid, code, -1, null, start);
+    }
+
+    /**
+     * Record a transaction.
+     *
+     * @param targetCode code of the transaction to target, or -1
+     * @param descriptor interface descriptor of the target of transactRemote, or null
+     * @param start      the time returned by {@link #start()}
+     */
+    public void record(int uid, int code, int targetCode, String descriptor, long start) {
+        long nanos = SystemClock.elapsedRealtimeNanos() - start;
+        if (!isKnownCode(code)) {
+            code = CODE_OTHER;
+            targetCode = -1;
+            descriptor = null;
+        }
+        Key key = new Key(uid, code, targetCode, descriptor);
+        Entry entry = entries.get(key);
+        if (entry == null && entries.size() >= MAX_ENTRIES) {
+            // At most one more key per uid once full
+            key = new Key(uid, CODE_OVERFLOW, -1, null);
+            entry = entries.get(key);
+        }
+        if (entry == null) {
+            Entry newEntry = new Entry(key);
+            entry = entries.putIfAbsent(key, newEntry);
+            if (entry == null) {
+                entry = newEntry;
+            }
+        }
+        entry.add(nanos);
+    }
+
+    /**
+     * Write the stats file periodically if it's enabled.
+     */
+    public void scheduleWrite() {
+        long interval = getWriteIntervalMillis();
+        if (interval > 0) {
+            LOGGER.i("write stats to %s every %d ms", STATS_PATH, interval);
+            handler.removeCallbacks(writeRunnable);
+            handler.postDelayed(writeRunnable, interval);
+        }
+    }
+
+    private void write() {
+        File file = new File(STATS_PATH);
+        File tmp = new File(STATS_PATH + ".tmp");
+        try (PrintWriter pw = new PrintWriter(new FileOutputStream(tmp))) {
+            dump(pw);
+        } catch (Throwable e) {
+            LOGGER.w(e, "write %s", STATS_PATH);
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            LOGGER.w("rename %s", tmp);
+        }
+    }
+
+    private static boolean isKnownCode(int code) {
+        return (code >= IBinder.FIRST_CALL_TRANSACTION && code < IBinder.FIRST_CALL_TRANSACTION + MAX_AIDL_CODES)
+                || code == ServerConstants.BINDER_TRANSACTION_getApplications
+                || code == ServerConstants.BINDER_TRANSACTION_showManagement
+                || code == ServerConstants.BINDER_TRANSACTION_openApk
+                || code == ServerConstants.BINDER_TRANSACTION_dispatchPackagesChanged
+                || code == ServerConstants.BINDER_TRANSACTION_transactRemoteBatch
+                || code == ServerConstants.BINDER_TRANSACTION_setTransactLimits
+                || code == IBinder.INTERFACE_TRANSACTION
+                || code == IBinder.DUMP_TRANSACTION
+                || code == IBinder.PING_TRANSACTION;
+    }
+
+    private static String getCodeName(int code) {
+        if (code == CODE_OVERFLOW) {
+            return "<overflow>";
+        } else if (code == CODE_OTHER) {
+            return "<other>";
+        } else if (code == ServerConstants.BINDER_TRANSACTION_getApplications) {
+            return "getApplications";
+        } else if (code == ServerConstants.BINDER_TRANSACTION_showManagement) {
+            return "showManagement";
+        } else if (code == ServerConstants.BINDER_TRANSACTION_openApk) {
+            return "openApk";
+        } else if (code == ServerConstants.BINDER_TRANSACTION_dispatchPackagesChanged) {
+            return "dispatchPackagesChanged";
+        } else if (code == ServerConstants.BINDER_TRANSACTION_transactRemoteBatch) {
+            return "transactRemoteBatch";
+        } else if (code == ServerConstants.BINDER_TRANSACTION_setTransactLimits) {
+            return "setTransactLimits";
+        } else if (code == ShizukuApiConstants.BINDER_TRANSACTION_transact) {
+            return "transactRemote";
+        }
+        return Integer.toString(code);
+    }
+
+    private static long percentile(long[] sum, double fraction) {
+        long count = sum[COUNT];
+        long target = (long) Math.ceil(count * fraction);
+        long seen = 0;
+        for (int i = 0; i <= BUCKETS_MICROS.length; i++) {
+            seen += sum[BUCKET + i];
+            if (seen >= target) {
+                return i < BUCKETS_MICROS.length ? BUCKETS_MICROS[i] : sum[MAX] / 1000;
+            }
+        }
+        return sum[MAX] / 1000;
+    }
+
+    /**
+     * Dump the total and the busiest keys.
+     */
+    public void dumpSummary(DumpWriter dw, int limit) {
+        List<Entry> list = new ArrayList<>(entries.values());
+        List<long[]> sums = new ArrayList<>(list.size());
+        long total = 0;
+        for (Entry entry : list) {
+            long[] sum = entry.sum();
+            sums.add(sum);
+            total += sum[COUNT];
+        }
+        Integer[] order = new Integer[list.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(sums.get(b)[COUNT], sums.get(a)[COUNT]));
+
+        dw.beginObject("transactions");
+        dw.value("total", total);
+        dw.value("keys", list.size());
+        dw.beginArray("top");
+        for (int n = 0; n < Math.min(limit, order.length); n++) {
+            Key key = list.get(order[n]).key;
+            long[] sum = sums.get(order[n]);
+            String name = getCodeName(key.code) + (key.targetCode != -1 ? "#" + key.targetCode : "");
+            dw.beginItem("uid " + key.uid + " " + name)
+                    .value("uid", key.uid)
+                    .value("code", key.code)
+                    .value("target_code", key.targetCode)
+                    .value("target_descriptor", key.descriptor)
+                    .value("count", sum[COUNT])
+                    .value("avg_us", sum[COUNT] > 0 ? sum[TOTAL] / sum[COUNT] / 1000 : 0)
+                    .value("max_us", sum[MAX] / 1000)
+                    .endObject();
+        }
+        dw.endArray();
+        dw.endObject();
+    }
+
+    public void dump(PrintWriter pw) {
+        List<Entry> list = new ArrayList<>(entries.values());
+        List<long[]> sums = new ArrayList<>(list.size());
+        for (Entry entry : list) {
+            sums.add(entry.sum());
+        }
+        Integer[] order = new Integer[list.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(sums.get(b)[COUNT], sums.get(a)[COUNT]));
+
+        long total = 0;
+        for (long[] sum : sums) {
+            total += sum[COUNT];
+        }
+
+        binderThreads.dump(pw);
+
+        long uptime = Math.max(1, SystemClock.elapsedRealtime() - startTime);
+        pw.printf(Locale.ENGLISH, "Transactions: %d in %d s, %d keys%n", total, uptime / 1000, list.size());
+        pw.println("  (latency in us, p50/p99 are bucket upper bounds)");
+        for (int i : order) {
+            Entry entry = list.get(i);
+            long[] sum = sums.get(i);
+            long count = sum[COUNT];
+            if (count == 0) {
+                continue;
+            }
+            Key key = entry.key;
+            StringBuilder sb = new StringBuilder();
+            sb.append("  uid=").append(key.uid).append(' ').append(getCodeName(key.code));
+            if (key.targetCode != -1) {
+                sb.append(" -> ").append(key.descriptor != null ? key.descriptor : "<other>")
+                        .append('#').append(key.targetCode);
+            }
+            pw.printf(Locale.ENGLISH, "%s: count=%d, rate=%.2f/s, avg=%d, p50=%d, p99=%d, max=%d%n",
+                    sb, count, count * 1000.0 / uptime, sum[TOTAL] / count / 1000,
+                    percentile(sum, 0.5), percentile(sum, 0.99), sum[MAX] / 1000);
+        }
+    }
+}
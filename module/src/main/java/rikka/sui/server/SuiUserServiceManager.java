@@ -19,20 +19,43 @@
 
 package rikka.sui.server;
 
+import static rikka.sui.server.ServerConstants.LOGGER;
+import static rikka.sui.server.ServerConstants.TRACE;
+
+import static rikka.shizuku.ShizukuApiConstants.USER_SERVICE_ARG_COMPONENT;
+import static rikka.shizuku.ShizukuApiConstants.USER_SERVICE_ARG_TAG;
+import static rikka.shizuku.ShizukuApiConstants.USER_SERVICE_ARG_TOKEN;
+import static rikka.shizuku.ShizukuApiConstants.USER_SERVICE_ARG_VERSION_CODE;
+
+import android.content.ComponentName;
+import android.os.Binder;
 import android.os.Build;
+import android.os.Bundle;
+import android.os.IBinder;
+import android.os.SystemClock;
+import android.util.ArrayMap;
 
 import java.io.File;
 import java.util.Locale;
+import java.util.Map;
 
+import moe.shizuku.server.IShizukuServiceConnection;
+import rikka.hidden.compat.PackageManagerApis;
 import rikka.shizuku.server.UserServiceManager;
+import rikka.shizuku.server.UserServiceRecord;
+import rikka.sui.util.DumpWriter;
+import rikka.sui.util.OsUtils;
+import rikka.sui.util.Systrace;
+import rikka.sui.util.TraceBuffer;
 
 public class SuiUserServiceManager extends UserServiceManager {
 
     public static final String USER_SERVICE_CMD_DEBUG;
 
-    private static final String USER_SERVICE_CMD_FORMAT = "(CLASSPATH='%s' %s%s /system/bin " +
+    // The process itself, the shell execs into app_process
+    private static final String USER_SERVICE_CMD_FORMAT = "CLASSPATH='%s' exec %s%s%s /system/bin " +
             "--nice-name='%s' %s " +
-            "--token='%s' --package='%s' --class='%s' --uid=%d%s)&";
+            "--token='%s' --package='%s' --class='%s' --uid=%d%s";
 
     static {
         int sdk = Build.VERSION.SDK_INT;
@@ -56,16 +79,320 @@ public class SuiUserServiceManager extends UserServiceManager {
         SuiUserServiceManager.dexPath = path;
     }
 
+    private final SuiUserServiceZygote zygote;
+    private final SuiUserServicePool pool = new SuiUserServicePool();
+    private final SuiUserServiceTelemetry telemetry = new SuiUserServiceTelemetry();
+    private final SuiUserServiceScheduler scheduler = new SuiUserServiceScheduler();
+    private final Map<String, String> keyToToken = new ArrayMap<>();
+    private final Map<String, Integer> keyToPid = new ArrayMap<>();
+    private final Map<String, SuiUserServicePolicy> keyToPolicy = new ArrayMap<>();
+    private final Map<String, UserServiceRecord> keyToRecord = new ArrayMap<>();
+    private final Map<String, Integer> keyToVersionCode = new ArrayMap<>();
+
+    public SuiUserServiceManager() {
+        super();
+        zygote = new SuiUserServiceZygote(dexPath);
+    }
+
+    /**
+     * Called once the binder of the server is in the bridge. The standby process gets the
+     * binder from there while it boots, so it must not be started before.
+     */
+    public void onBinderSentToBridge() {
+        // So that the first user service after boot is not a cold start
+        zygote.prepare();
+    }
+
+    private static String getKey(Bundle options) {
+        ComponentName componentName = options.getParcelable(USER_SERVICE_ARG_COMPONENT);
+        if (componentName == null) {
+            return null;
+        }
+        String tag = options.getString(USER_SERVICE_ARG_TAG);
+        return componentName.getPackageName() + ":" + (tag != null ? tag : componentName.getClassName());
+    }
+
+    /**
+     * Returns if the calling uid owns the package of the component of options. The pool and
+     * the policies are only touched for such callers, super rejects the others.
+     */
+    private static boolean isCallerOwner(Bundle options, int callingUid) {
+        ComponentName componentName = options.getParcelable(USER_SERVICE_ARG_COMPONENT);
+        return componentName != null
+                && PackageManagerApis.getPackagesForUidNoThrow(callingUid).contains(componentName.getPackageName());
+    }
+
+    @Override
+    public int addUserService(IShizukuServiceConnection conn, Bundle options, int callingApiVersion) {
+        String key = getKey(options);
+        long requestTime = -1;
+        if (key != null && isCallerOwner(options, Binder.getCallingUid())) {
+            // The request time is only used by the start, which does not happen on reuse
+            if (!pool.reuse(key, options.getInt(USER_SERVICE_ARG_VERSION_CODE, 1))) {
+                requestTime = telemetry.onRequest(key);
+            }
+
+            SuiUserServicePolicy policy = SuiUserServicePolicy.create(key, options);
+            synchronized (keyToPid) {
+                // For startUserService, called by super
+                keyToVersionCode.put(key, options.getInt(USER_SERVICE_ARG_VERSION_CODE, 1));
+                if (policy != null) {
+                    keyToPolicy.put(key, policy);
+                } else {
+                    keyToPolicy.remove(key);
+                }
+            }
+        }
+        try {
+            return super.addUserService(conn, options, callingApiVersion);
+        } finally {
+            // A start takes the time in startUserService, called by super. If super rejects
+            // the request or binds a living record, the time must not be charged to a later
+            // start.
+            if (requestTime != -1) {
+                telemetry.cancelRequest(key, requestTime);
+            }
+        }
+    }
+
+    @Override
+    public int removeUserService(IShizukuServiceConnection conn, Bundle options) {
+        String key = getKey(options);
+        int callingUid = Binder.getCallingUid();
+
+        // Let super do the checks and the removal if the caller does not own the package
+        if (key == null || !isCallerOwner(options, callingUid)) {
+            return super.removeUserService(conn, options);
+        }
+
+        Integer pid;
+        SuiUserServicePolicy policy;
+        UserServiceRecord record;
+        synchronized (keyToPid) {
+            pid = keyToPid.get(key);
+            policy = keyToPolicy.get(key);
+            record = keyToRecord.get(key);
+        }
+
+        // The caller has been checked above, the record is removed later without its identity
+        if (record != null && policy != null
+                && pool.keep(key, options.getInt(USER_SERVICE_ARG_VERSION_CODE, 1), pid != null ? pid : -1,
+                policy.getKeepAliveMillis(), () -> remove(key, record))) {
+            return 0;
+        }
+        return super.removeUserService(conn, options);
+    }
+
+    private void remove(String key, UserServiceRecord record) {
+        synchronized (keyToPid) {
+            if (keyToRecord.get(key) == record) {
+                keyToRecord.remove(key);
+            }
+        }
+        try {
+            record.removeSelf();
+        } catch (Throwable e) {
+            LOGGER.w(e, "remove user service %s", key);
+        }
+    }
+
+    @Override
+    public void onUserServiceRecordRemoved(UserServiceRecord record) {
+        String key = null;
+        synchronized (keyToPid) {
+            for (Map.Entry<String, UserServiceRecord> entry : keyToRecord.entrySet()) {
+                if (entry.getValue() == record) {
+                    key = entry.getKey();
+                    break;
+                }
+            }
+            if (key != null) {
+                keyToRecord.remove(key);
+            }
+        }
+        // Also the case when the connection of an idle service dies
+        if (key != null) {
+            pool.drop(key);
+        }
+        super.onUserServiceRecordRemoved(record);
+    }
+
+    @Override
+    public void attachUserService(IBinder binder, Bundle options) {
+        String token = options.getString(USER_SERVICE_ARG_TOKEN);
+        int callingPid = Binder.getCallingPid();
+        TRACE.record(TraceBuffer.EVENT_ATTACH_USER_SERVICE, Binder.getCallingUid(), callingPid, 0);
+
+        SuiUserServiceScheduler.Attached attached = scheduler.onAttach(token);
+        String key = attached != null ? attached.key : null;
+        SuiUserServicePolicy policy = null;
+        synchronized (keyToPid) {
+            if (key == null) {
+                for (Map.Entry<String, String> entry : keyToToken.entrySet()) {
+                    if (entry.getValue().equals(token)) {
+                        key = entry.getKey();
+                        break;
+                    }
+                }
+            }
+            if (key != null) {
+                keyToPid.put(key, callingPid);
+                policy = keyToPolicy.get(key);
+
+                // A later record of the same version and flags joined the start of this
+                // process, attach it as that record
+                if (attached != null && !attached.token.equals(token)) {
+                    options.putString(USER_SERVICE_ARG_TOKEN, attached.token);
+                }
+            }
+        }
+
+        if (key != null) {
+            telemetry.onAttach(key.substring(0, key.indexOf(':')), options);
+        }
+
+        // Before the binder is handed to the app
+        if (policy != null) {
+            policy.apply(callingPid);
+        }
+
+        super.attachUserService(binder, options);
+    }
+
+    public void dump(DumpWriter dw) {
+        // Reading /proc is slow, don't do it with the lock held
+        Map<String, Integer> pids = new ArrayMap<>();
+        Map<String, SuiUserServicePolicy> policies = new ArrayMap<>();
+        synchronized (keyToPid) {
+            pids.putAll(keyToPid);
+            policies.putAll(keyToPolicy);
+        }
+
+        dw.beginObject("user_services");
+        dw.beginArray("processes");
+        for (Map.Entry<String, Integer> entry : pids.entrySet()) {
+            int pid = entry.getValue();
+            long rssKb = OsUtils.getRssKb(pid);
+            if (rssKb == -1) {
+                continue;
+            }
+            SuiUserServicePolicy policy = policies.get(entry.getKey());
+            dw.beginItem(entry.getKey())
+                    .value("key", entry.getKey())
+                    .value("pid", pid)
+                    .value("cpu_ms", OsUtils.getCpuTimeMillis(pid))
+                    .value("rss_kb", rssKb)
+                    .value("policy", policy != null ? policy.toString() : null)
+                    .endObject();
+        }
+        dw.endArray();
+        scheduler.dump(dw);
+        pool.dump(dw);
+        telemetry.dump(dw);
+        dw.endObject();
+    }
+
     @Override
-    public String getUserServiceStartCmd(rikka.shizuku.server.UserServiceRecord record, String key, String token, String packageName, String classname, String processNameSuffix, int callingUid, boolean use32Bits, boolean debug) {
-        String appProcess = "/system/bin/app_process";
+    public void removeUserServicesForPackage(String packageName) {
+        pool.removePackage(packageName);
+        synchronized (keyToPid) {
+            keyToRecord.keySet().removeIf(key -> key.startsWith(packageName + ":"));
+        }
+        super.removeUserServicesForPackage(packageName);
+    }
+
+    private static String getAppProcess(boolean use32Bits) {
         if (use32Bits && new File("/system/bin/app_process32").exists()) {
-            appProcess = "/system/bin/app_process32";
+            return "/system/bin/app_process32";
         }
-        String processName = String.format("%s:%s", packageName, processNameSuffix);
-        return String.format(Locale.ENGLISH, USER_SERVICE_CMD_FORMAT, dexPath, appProcess,
+        return "/system/bin/app_process";
+    }
+
+    /**
+     * The command of a cold start in background, for sh. Not used by the start of this class.
+     */
+    @Override
+    public String getUserServiceStartCmd(UserServiceRecord record, String key, String token, String packageName, String classname, String processNameSuffix, int callingUid, boolean use32Bits, boolean debug) {
+        return "(" + getStartCmd(token, packageName, classname, String.format("%s:%s", packageName, processNameSuffix),
+                callingUid, getAppProcess(use32Bits), debug, -1, -1) + ")&";
+    }
+
+    private static String getStartCmd(String token, String packageName, String classname, String processName, int callingUid, String appProcess, boolean debug, long requestTime, long spawnTime) {
+        return String.format(Locale.ENGLISH, USER_SERVICE_CMD_FORMAT,
+                dexPath, appProcess,
+                String.format(Locale.ENGLISH, " -D%s=%d -D%s=%d",
+                        SuiUserServiceTelemetry.PROPERTY_REQUEST_TIME, requestTime,
+                        SuiUserServiceTelemetry.PROPERTY_SPAWN_TIME, spawnTime),
                 debug ? (" " + SuiUserServiceManager.USER_SERVICE_CMD_DEBUG) : "",
                 processName, "rikka.sui.server.userservice.Starter",
                 token, packageName, classname, callingUid, debug ? (" " + "--debug-name=" + processName) : "");
     }
+
+    /**
+     * Replaces the start of super, which always runs the start command with sh. The process
+     * is spawned by the scheduler, from the standby process if possible, and sh is only used
+     * for a cold start.
+     */
+    @Override
+    public void startUserService(UserServiceRecord record, String key, String token, String packageName, String classname, String processNameSuffix, int callingUid, boolean use32Bits, boolean debug) {
+        String appProcess = getAppProcess(use32Bits);
+        String processName = String.format("%s:%s", packageName, processNameSuffix);
+
+        Integer versionCode;
+        synchronized (keyToPid) {
+            keyToToken.put(key, token);
+            keyToRecord.put(key, record);
+            keyToPid.remove(key);
+            versionCode = keyToVersionCode.get(key);
+        }
+
+        // Only a process started with the same version and flags can serve a later record
+        String variant = String.format(Locale.ENGLISH, "%d:%s:%s:%d", versionCode != null ? versionCode : -1,
+                appProcess, debug, callingUid);
+
+        long requestTime = telemetry.takeRequestTime(key);
+        scheduler.submit(key, token, variant, callingUid, () -> {
+            Systrace.begin("Sui:spawnUserService");
+            try {
+                return spawn(key, token, packageName, classname, processName, callingUid, appProcess, debug, requestTime);
+            } finally {
+                Systrace.end();
+            }
+        });
+    }
+
+    private Process spawn(String key, String token, String packageName, String classname, String processName, int callingUid, String appProcess, boolean debug, long requestTime) {
+        long spawnTime = SystemClock.elapsedRealtime();
+
+        // The standby process is a primary-ABI process without JDWP, it can't be used for
+        // 32-bit or debuggable services
+        if (!debug && appProcess.equals("/system/bin/app_process")) {
+            String[] args = new String[]{
+                    "--token=" + token,
+                    "--package=" + packageName,
+                    "--class=" + classname,
+                    "--uid=" + callingUid
+            };
+            Process process = zygote.start(processName, requestTime, spawnTime, args);
+            if (process != null) {
+                LOGGER.v("user service %s is handed to the standby process", key);
+                return process;
+            }
+        }
+
+        String cmd = getStartCmd(token, packageName, classname, processName, callingUid, appProcess, debug, requestTime, spawnTime)
+                + " </dev/null >/dev/null 2>&1";
+
+        try {
+            // sh execs into the service, so the scheduler can see it exit
+            Process process = Runtime.getRuntime().exec(new String[]{"/system/bin/sh", "-c", cmd});
+            process.getOutputStream().close();
+            process.getInputStream().close();
+            process.getErrorStream().close();
+            return process;
+        } catch (Throwable e) {
+            LOGGER.w(e, "start user service %s", key);
+            return null;
+        }
+    }
 }
@@ -0,0 +1,263 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package rikka.sui.server;
+
+import static rikka.sui.server.ServerConstants.LOGGER;
+
+import android.os.Bundle;
+import android.os.Process;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Scheduling class and limits of a user service process, applied when the process attaches,
+ * and how long the process is kept alive after it's unbound (see {@link SuiUserServicePool}).
+ * <p>
+ * The policy comes from the bind options of the record (keys prefixed with
+ * {@link #OPTION_PREFIX}), and lines of {@link #CONFIG_PATH} override it:
+ * <pre>
+ * # package[:class or tag] name=value...
+ * com.example:com.example.IndexService nice=10 cpuset=background io_priority=7 memory_limit_mb=256
+ * com.example:com.example.ShellService keep_alive_ms=60000
+ * </pre>
+ */
+public class SuiUserServicePolicy {
+
+    public static final String OPTION_PREFIX = "rikka.sui.user_service.";
+    public static final String CONFIG_PATH = "/data/adb/sui/user_service_policy.conf";
+
+    private static final String CPUSET_DIR = "/dev/cpuset";
+    private static final String MEMCG_V1_DIR = "/dev/memcg";
+    private static final String CGROUP_V2_DIR = "/sys/fs/cgroup";
+
+    private static final int UNSET = Integer.MIN_VALUE;
+
+    private static final Executor IONICE_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private int nice = UNSET;
+    private String cpuset;
+    private int ioPriority = UNSET;
+    private long memoryLimitMb;
+    private long keepAliveMillis;
+
+    private void set(String name, String value) {
+        try {
+            switch (name) {
+                case "nice":
+                    nice = Math.max(-20, Math.min(19, Integer.parseInt(value)));
+                    break;
+                case "cpuset":
+                    // Only names of existing groups, no paths
+                    if (value.matches("[a-z-]+") && new File(CPUSET_DIR, value).isDirectory()) {
+                        cpuset = value;
+                    }
+                    break;
+                case "io_priority":
+                    ioPriority = Math.max(0, Math.min(7, Integer.parseInt(value)));
+                    break;
+                case "memory_limit_mb":
+                    memoryLimitMb = Math.max(0, Long.parseLong(value));
+                    break;
+                case "keep_alive_ms":
+                    keepAliveMillis = Math.max(0, Long.parseLong(value));
+                    break;
+            }
+        } catch (NumberFormatException e) {
+            LOGGER.w("invalid value %s for %s", value, name);
+        }
+    }
+
+    public boolean isEmpty() {
+        return nice == UNSET && cpuset == null && ioPriority == UNSET && memoryLimitMb == 0 && keepAliveMillis == 0;
+    }
+
+    public long getKeepAliveMillis() {
+        return keepAliveMillis;
+    }
+
+    @Nullable
+    public static SuiUserServicePolicy create(@NonNull String key, @Nullable Bundle options) {
+        SuiUserServicePolicy policy = new SuiUserServicePolicy();
+
+        if (options != null) {
+            for (String name : options.keySet()) {
+                if (name.startsWith(OPTION_PREFIX)) {
+                    policy.set(name.substring(OPTION_PREFIX.length()), String.valueOf(options.get(name)));
+                }
+            }
+        }
+
+        String packageName = key.substring(0, key.indexOf(':'));
+        try (BufferedReader reader = new BufferedReader(new FileReader(CONFIG_PATH))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.trim().split("\\s+");
+                if (parts[0].isEmpty() || parts[0].startsWith("#")
+                        || !(parts[0].equals(key) || parts[0].equals(packageName))) {
+                    continue;
+                }
+                for (int i = 1; i < parts.length; i++) {
+                    int index = parts[i].indexOf('=');
+                    if (index > 0) {
+                        policy.set(parts[i].substring(0, index), parts[i].substring(index + 1));
+                    }
+                }
+            }
+        } catch (IOException ignored) {
+        }
+
+        return policy.isEmpty() ? null : policy;
+    }
+
+    private static boolean write(File file, String value) {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(value.getBytes(StandardCharsets.UTF_8));
+            return true;
+        } catch (IOException e) {
+            LOGGER.w("write %s to %s: %s", value, file, e.getMessage());
+            return false;
+        }
+    }
+
+    private static boolean hasController(File dir, String controller) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(new File(dir, "cgroup.subtree_control")))) {
+            String line = reader.readLine();
+            return line != null && Arrays.asList(line.trim().split("\\s+")).contains(controller);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static File createMemoryGroup(int pid, long limitBytes) {
+        File dir = new File(MEMCG_V1_DIR);
+        if (new File(dir, "memory.limit_in_bytes").exists()) {
+            File group = new File(dir, "sui_" + pid);
+            if ((group.isDirectory() || group.mkdir())
+                    && write(new File(group, "memory.limit_in_bytes"), Long.toString(limitBytes))) {
+                return group;
+            }
+            return null;
+        }
+
+        // A child group only gets memory.max if the parent hands the controller down, without it
+        // the process would be moved out of its group for nothing
+        dir = new File(CGROUP_V2_DIR);
+        if (!hasController(dir, "memory") && !write(new File(dir, "cgroup.subtree_control"), "+memory")) {
+            LOGGER.w("memory controller is not enabled in %s, no memory limit", dir);
+            return null;
+        }
+        File group = new File(dir, "sui_" + pid);
+        if ((group.isDirectory() || group.mkdir())
+                && write(new File(group, "memory.max"), Long.toString(limitBytes))) {
+            return group;
+        }
+        return null;
+    }
+
+    /**
+     * Remove memory groups of processes which have exited.
+     */
+    private static void pruneMemoryGroups() {
+        for (String path : new String[]{MEMCG_V1_DIR, CGROUP_V2_DIR}) {
+            File[] groups = new File(path).listFiles((dir, name) -> name.startsWith("sui_"));
+            if (groups == null) {
+                continue;
+            }
+            for (File group : groups) {
+                try {
+                    int pid = Integer.parseInt(group.getName().substring("sui_".length()));
+                    if (!new File("/proc/" + pid).exists()) {
+                        //noinspection ResultOfMethodCallIgnored
+                        group.delete();
+                    }
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+    }
+
+    public void apply(int pid) {
+        LOGGER.i("apply %s to %d", this, pid);
+
+        if (nice != UNSET) {
+            // Priority is per thread, threads created later inherit it from their creator
+            String[] tids = new File("/proc/" + pid + "/task").list();
+            if (tids != null) {
+                for (String tid : tids) {
+                    try {
+                        Process.setThreadPriority(Integer.parseInt(tid), nice);
+                    } catch (RuntimeException e) {
+                        LOGGER.w("setThreadPriority %s: %s", tid, e.getMessage());
+                    }
+                }
+            }
+        }
+
+        if (ioPriority != UNSET) {
+            // There's no ioprio_set in Java, and the shell takes a while, don't hold the attach
+            // call of the process for it
+            String cmd = String.format(Locale.ENGLISH,
+                    "for t in /proc/%d/task/*; do ionice -c 2 -n %d -p ${t##*/}; done", pid, ioPriority);
+            IONICE_EXECUTOR.execute(() -> {
+                try {
+                    Runtime.getRuntime().exec(new String[]{"/system/bin/sh", "-c", cmd}).waitFor();
+                } catch (Throwable e) {
+                    LOGGER.w(e, "ionice");
+                }
+            });
+        }
+
+        if (cpuset != null) {
+            write(new File(CPUSET_DIR + "/" + cpuset, "cgroup.procs"), Integer.toString(pid));
+        }
+
+        if (memoryLimitMb > 0) {
+            pruneMemoryGroups();
+            File group = createMemoryGroup(pid, memoryLimitMb * 1024 * 1024);
+            if (group != null) {
+                write(new File(group, "cgroup.procs"), Integer.toString(pid));
+            }
+        }
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "SuiUserServicePolicy{" +
+                "nice=" + (nice != UNSET ? nice : "unset") +
+                ", cpuset=" + cpuset +
+                ", ioPriority=" + (ioPriority != UNSET ? ioPriority : "unset") +
+                ", memoryLimitMb=" + memoryLimitMb +
+                ", keepAliveMillis=" + keepAliveMillis +
+                '}';
+    }
+}
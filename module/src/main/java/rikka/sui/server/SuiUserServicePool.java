@@ -0,0 +1,217 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package rikka.sui.server;
+
+import static rikka.sui.server.ServerConstants.LOGGER;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.os.SystemProperties;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import rikka.sui.util.DumpWriter;
+import rikka.sui.util.OsUtils;
+
+/**
+ * Keeps user services which have been unbound alive for a while, so that a rebind of the same
+ * version inside the window reuses the living process and its binder.
+ * <p>
+ * Each service opts in with {@code keep_alive_ms} of its {@link SuiUserServicePolicy}. The
+ * pool is capped by {@code persist.sui.user_service.pool_max} processes and
+ * {@code persist.sui.user_service.pool_max_rss_kb}, the least recently used ones are evicted
+ * first.
+ */
+public class SuiUserServicePool {
+
+    private static final String PROP_MAX_SIZE = "persist.sui.user_service.pool_max";
+    private static final String PROP_MAX_RSS_KB = "persist.sui.user_service.pool_max_rss_kb";
+
+    private static final int DEFAULT_MAX_SIZE = 4;
+    private static final long DEFAULT_MAX_RSS_KB = 256 * 1024;
+
+    private static class Entry {
+
+        final String key;
+        final int versionCode;
+        final Runnable remove;
+        final long idleSince;
+        final int pid;
+
+        Entry(String key, int versionCode, Runnable remove, int pid) {
+            this.key = key;
+            this.versionCode = versionCode;
+            this.remove = remove;
+            this.idleSince = SystemClock.elapsedRealtime();
+            this.pid = pid;
+        }
+    }
+
+    // Insertion order is the order entries become idle, the first one is the least recently used
+    private final Map<String, Entry> idle = new LinkedHashMap<>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private int hits;
+    private int misses;
+
+    /**
+     * Keep the service of key alive instead of removing it now.
+     *
+     * @param keepAliveMillis how long to keep it, from the policy of the service
+     * @param remove          removes the service for real, called when the entry expires or is
+     *                        evicted
+     * @return false if the service does not use keep-alive, the caller should remove it now
+     */
+    public boolean keep(String key, int versionCode, int pid, long keepAliveMillis, Runnable remove) {
+        if (keepAliveMillis <= 0) {
+            return false;
+        }
+
+        List<Entry> entries;
+        synchronized (this) {
+            Entry entry = new Entry(key, versionCode, remove, pid);
+            idle.put(key, entry);
+            handler.postDelayed(() -> expire(entry), keepAliveMillis);
+            entries = new ArrayList<>(idle.values());
+        }
+
+        // Reading /proc is slow, don't do it with the lock held
+        Map<Entry, Long> rss = new HashMap<>();
+        for (Entry entry : entries) {
+            rss.put(entry, entry.pid > 0 ? Math.max(0, OsUtils.getRssKb(entry.pid)) : 0L);
+        }
+
+        List<Entry> evicted = new ArrayList<>();
+        synchronized (this) {
+            evictLocked(rss, evicted);
+        }
+
+        for (Entry entry : evicted) {
+            LOGGER.i("evict idle user service %s", entry.key);
+            entry.remove.run();
+        }
+
+        if (LOGGER.isLoggable(Log.VERBOSE)) {
+            LOGGER.v("keep user service %s alive for %d ms", key, keepAliveMillis);
+        }
+        return true;
+    }
+
+    /**
+     * Called when a service is requested again. If the service is in the pool with the same
+     * version, it's taken out of the pool and the caller will reuse it. If the version
+     * differs, the old one is removed.
+     *
+     * @return true if the idle service is reused
+     */
+    public boolean reuse(String key, int versionCode) {
+        Entry entry;
+        synchronized (this) {
+            entry = idle.remove(key);
+            if (entry != null && entry.versionCode == versionCode) {
+                hits++;
+            } else {
+                misses++;
+            }
+        }
+
+        if (entry == null) {
+            return false;
+        }
+
+        if (entry.versionCode == versionCode) {
+            LOGGER.v("reuse idle user service %s", key);
+            return true;
+        } else {
+            LOGGER.v("idle user service %s is outdated", key);
+            entry.remove.run();
+            return false;
+        }
+    }
+
+    /**
+     * Called when the record of key is removed by other means, such as the death of its
+     * connection, the entry is dropped without removing it again.
+     */
+    public void drop(String key) {
+        synchronized (this) {
+            idle.remove(key);
+        }
+    }
+
+    public void removePackage(String packageName) {
+        synchronized (this) {
+            idle.values().removeIf(entry -> entry.key.startsWith(packageName + ":"));
+        }
+    }
+
+    private void expire(Entry entry) {
+        synchronized (this) {
+            if (idle.get(entry.key) != entry) {
+                return;
+            }
+            idle.remove(entry.key);
+        }
+
+        LOGGER.i("idle user service %s expired", entry.key);
+        entry.remove.run();
+    }
+
+    public void dump(DumpWriter dw) {
+        int size, hitCount, missCount;
+        synchronized (this) {
+            size = idle.size();
+            hitCount = hits;
+            missCount = misses;
+        }
+        dw.beginObject("pool")
+                .value("idle", size)
+                .value("hits", hitCount)
+                .value("misses", missCount)
+                .endObject();
+    }
+
+    private void evictLocked(Map<Entry, Long> rss, List<Entry> evicted) {
+        int maxSize = SystemProperties.getInt(PROP_MAX_SIZE, DEFAULT_MAX_SIZE);
+        long maxRssKb = SystemProperties.getLong(PROP_MAX_RSS_KB, DEFAULT_MAX_RSS_KB);
+
+        // Entries added since rss was read are not counted until the next time
+        long rssKb = 0;
+        for (Entry entry : idle.values()) {
+            Long value = rss.get(entry);
+            rssKb += value != null ? value : 0;
+        }
+
+        Iterator<Entry> it = idle.values().iterator();
+        while (it.hasNext() && (idle.size() > maxSize || rssKb > maxRssKb)) {
+            Entry entry = it.next();
+            it.remove();
+            Long value = rss.get(entry);
+            rssKb -= value != null ? value : 0;
+            evicted.add(entry);
+        }
+    }
+}
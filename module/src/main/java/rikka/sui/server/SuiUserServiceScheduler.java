@@ -0,0 +1,331 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package rikka.sui.server;
+
+import static rikka.sui.server.ServerConstants.LOGGER;
+
+import android.app.ActivityManager;
+import android.app.IActivityManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ServiceManager;
+import android.os.SystemProperties;
+import android.util.ArrayMap;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import rikka.sui.util.DumpWriter;
+
+/**
+ * Schedules spawning of user service processes.
+ * <p>
+ * A start request for a key which already has a start of the same variant (version code and
+ * start flags) in flight joins the in-flight one, the process will attach with the token of
+ * the latest request. An in-flight start of another variant is killed, since its record is
+ * gone. At most {@code persist.sui.user_service.max_starts} processes are starting at the
+ * same time, a start slot is released when the process attaches, exits, or the start times
+ * out. Waiting requests of foreground apps are spawned first.
+ * <p>
+ * Requests are queued and spawned on the scheduler thread, so that the process state query of
+ * the requesting app does not run on the binder thread of the request.
+ */
+public class SuiUserServiceScheduler {
+
+    private static final String PROP_MAX_STARTS = "persist.sui.user_service.max_starts";
+    private static final int DEFAULT_MAX_STARTS = 2;
+
+    // Same as the start timeout of UserServiceRecord
+    private static final long START_TIMEOUT_MILLIS = 30 * 1000;
+
+    // How often a starting process is checked for exit
+    private static final long WATCH_INTERVAL_MILLIS = 250;
+
+    public interface Spawner {
+
+        /**
+         * Spawns the process, runs on the scheduler thread.
+         *
+         * @return the process, or null if it can't be spawned
+         */
+        Process spawn();
+    }
+
+    /**
+     * The process which attaches and the token it should attach as.
+     */
+    public static class Attached {
+
+        public final String key;
+        public final String token;
+
+        Attached(String key, String token) {
+            this.key = key;
+            this.token = token;
+        }
+    }
+
+    private static class Job implements Comparable<Job> {
+
+        final String key;
+        final String token;
+        final String variant;
+        final boolean foreground;
+        final long seq;
+        final Spawner spawner;
+        // Guarded by the scheduler
+        String latestToken;
+        Process process;
+        boolean cancelled;
+
+        Job(String key, String token, String variant, boolean foreground, long seq, Spawner spawner) {
+            this.key = key;
+            this.token = token;
+            this.variant = variant;
+            this.foreground = foreground;
+            this.seq = seq;
+            this.spawner = spawner;
+            this.latestToken = token;
+        }
+
+        @Override
+        public int compareTo(Job o) {
+            if (foreground != o.foreground) {
+                return foreground ? -1 : 1;
+            }
+            return Long.compare(seq, o.seq);
+        }
+    }
+
+    private final PriorityQueue<Job> queue = new PriorityQueue<>();
+    private final Map<String, Job> queued = new ArrayMap<>();
+    // Keyed by the token of the start
+    private final Map<String, Job> starting = new ArrayMap<>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Executor executor = Executors.newSingleThreadExecutor();
+    private long seq;
+    private int deduplicated;
+    private int exited;
+
+    private static Method getUidProcessStateMethod;
+    private static int processStateTop = -1;
+
+    static {
+        try {
+            getUidProcessStateMethod = IActivityManager.class.getDeclaredMethod("getUidProcessState", int.class, String.class);
+            processStateTop = ActivityManager.class.getDeclaredField("PROCESS_STATE_TOP").getInt(null);
+        } catch (Throwable e) {
+            LOGGER.w(e, "getUidProcessState");
+        }
+    }
+
+    /**
+     * Returns if uid has a process at the top, or false if it can't be known.
+     */
+    private static boolean isForeground(int uid) {
+        if (getUidProcessStateMethod == null || processStateTop == -1) {
+            return false;
+        }
+        try {
+            IActivityManager am = IActivityManager.Stub.asInterface(ServiceManager.getService("activity"));
+            int state = (int) getUidProcessStateMethod.invoke(am, uid, "android");
+            return state <= processStateTop;
+        } catch (Throwable e) {
+            LOGGER.w(e, "getUidProcessState %d", uid);
+            return false;
+        }
+    }
+
+    public static int getMaxStarts() {
+        return Math.max(1, SystemProperties.getInt(PROP_MAX_STARTS, DEFAULT_MAX_STARTS));
+    }
+
+    /**
+     * Schedule the start of the service of key.
+     *
+     * @param token   token of the record which requests the start
+     * @param variant processes of the same key and variant can serve each other's records
+     * @param uid     uid of the requesting app
+     */
+    public void submit(String key, String token, String variant, int uid, Spawner spawner) {
+        executor.execute(() -> enqueue(key, token, variant, isForeground(uid), spawner));
+    }
+
+    private void enqueue(String key, String token, String variant, boolean foreground, Spawner spawner) {
+        synchronized (this) {
+            for (Job job : new ArrayList<>(starting.values())) {
+                if (!job.key.equals(key) || job.cancelled) {
+                    continue;
+                }
+                if (job.variant.equals(variant)) {
+                    job.latestToken = token;
+                    deduplicated++;
+                    LOGGER.v("user service %s joins the in-flight start", key);
+                    return;
+                }
+                // Started for a record which is replaced, it can't serve the new one
+                LOGGER.v("user service %s is started again for another version or flags", key);
+                cancelLocked(job);
+            }
+
+            Job job = queued.get(key);
+            if (job != null) {
+                // The newer record replaces the old one, only its token will be accepted
+                queue.remove(job);
+                deduplicated++;
+            }
+            job = new Job(key, token, variant, foreground || (job != null && job.foreground), seq++, spawner);
+            queued.put(key, job);
+            queue.add(job);
+        }
+        schedule();
+    }
+
+    private void cancelLocked(Job job) {
+        job.cancelled = true;
+        starting.remove(job.token);
+        if (job.process != null) {
+            job.process.destroy();
+        }
+    }
+
+    /**
+     * Called when a process attaches.
+     *
+     * @return key of the process and the token of the latest record which joined its start,
+     * or null if it's not started by the scheduler
+     */
+    public Attached onAttach(String token) {
+        Attached attached = null;
+        synchronized (this) {
+            Job job = starting.remove(token);
+            if (job != null) {
+                attached = new Attached(job.key, job.latestToken);
+            }
+        }
+        if (attached != null) {
+            schedule();
+        }
+        return attached;
+    }
+
+    private void timeout(Job job) {
+        synchronized (this) {
+            if (starting.get(job.token) != job) {
+                return;
+            }
+            starting.remove(job.token);
+        }
+        LOGGER.w("user service %s does not attach in %d ms", job.key, START_TIMEOUT_MILLIS);
+        schedule();
+    }
+
+    private static boolean isAlive(Process process) {
+        try {
+            process.exitValue();
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Release the slot as soon as the process exits, instead of holding it until the timeout.
+     */
+    private void watch(Job job) {
+        synchronized (this) {
+            if (starting.get(job.token) != job) {
+                return;
+            }
+            if (job.process == null || isAlive(job.process)) {
+                handler.postDelayed(() -> watch(job), WATCH_INTERVAL_MILLIS);
+                return;
+            }
+            starting.remove(job.token);
+            exited++;
+        }
+        LOGGER.w("user service %s exits before it attaches", job.key);
+        schedule();
+    }
+
+    private void spawn(Job job) {
+        Process process = null;
+        try {
+            process = job.spawner.spawn();
+        } catch (Throwable e) {
+            LOGGER.w(e, "spawn user service %s", job.key);
+        }
+
+        synchronized (this) {
+            job.process = process;
+            if (process == null) {
+                if (starting.get(job.token) == job) {
+                    starting.remove(job.token);
+                    exited++;
+                }
+            } else if (job.cancelled) {
+                process.destroy();
+            }
+        }
+        if (process == null) {
+            schedule();
+        }
+    }
+
+    private void schedule() {
+        int maxStarts = getMaxStarts();
+        while (true) {
+            Job job;
+            synchronized (this) {
+                if (starting.size() >= maxStarts || queue.isEmpty()) {
+                    return;
+                }
+                job = queue.poll();
+                queued.remove(job.key);
+                starting.put(job.token, job);
+            }
+
+            handler.postDelayed(() -> timeout(job), START_TIMEOUT_MILLIS);
+            handler.postDelayed(() -> watch(job), WATCH_INTERVAL_MILLIS);
+            executor.execute(() -> spawn(job));
+        }
+    }
+
+    public void dump(DumpWriter dw) {
+        int startingCount, queuedCount, deduplicatedCount, exitedCount;
+        synchronized (this) {
+            startingCount = starting.size();
+            queuedCount = queue.size();
+            deduplicatedCount = deduplicated;
+            exitedCount = exited;
+        }
+        dw.beginObject("scheduler")
+                .value("starting", startingCount)
+                .value("max_starts", getMaxStarts())
+                .value("queued", queuedCount)
+                .value("deduplicated", deduplicatedCount)
+                .value("exited_before_attach", exitedCount)
+                .endObject();
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package rikka.sui.server;
+
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.ArrayMap;
+
+import java.util.Map;
+
+import rikka.sui.util.DumpWriter;
+
+/**
+ * Per-package histograms of how long each stage of starting a user service takes.
+ * <p>
+ * All timestamps are {@link SystemClock#elapsedRealtime()}, which is the same in every
+ * process. The server passes the request and spawn times to the process as system
+ * properties, the process adds its own and sends all of them back in the attach Bundle.
+ */
+public class SuiUserServiceTelemetry {
+
+    public static final String PROPERTY_REQUEST_TIME = "sui.user_service.request_time";
+    public static final String PROPERTY_SPAWN_TIME = "sui.user_service.spawn_time";
+
+    public static final String EXTRA_REQUEST_TIME = "rikka.sui.user_service.time.request";
+    public static final String EXTRA_SPAWN_TIME = "rikka.sui.user_service.time.spawn";
+    public static final String EXTRA_MAIN_TIME = "rikka.sui.user_service.time.main";
+    public static final String EXTRA_CREATED_TIME = "rikka.sui.user_service.time.created";
+
+    // queue: request -> spawn, boot: spawn -> Starter#main, create: UserService#create,
+    // attach: binder handoff to the server
+    private static final String[] STAGES = {"queue", "boot", "create", "attach", "total"};
+    private static final long[] BUCKETS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000};
+
+    // UserServiceRecord gives up a start after 30s
+    private static final long STALE_REQUEST_MILLIS = 30 * 1000;
+
+    private static class Histogram {
+
+        final long[] counts = new long[BUCKETS.length + 1];
+        long count;
+        long sum;
+        long max;
+
+        void add(long value) {
+            int i = 0;
+            while (i < BUCKETS.length && value > BUCKETS[i]) {
+                i++;
+            }
+            counts[i]++;
+            count++;
+            sum += value;
+            max = Math.max(max, value);
+        }
+
+        Histogram copy() {
+            Histogram copy = new Histogram();
+            System.arraycopy(counts, 0, copy.counts, 0, counts.length);
+            copy.count = count;
+            copy.sum = sum;
+            copy.max = max;
+            return copy;
+        }
+    }
+
+    private final Map<String, Long> requestTimes = new ArrayMap<>();
+    private final Map<String, Histogram[]> histograms = new ArrayMap<>();
+
+    /**
+     * Called when the service of key is requested, {@link #cancelRequest(String, long)} must
+     * follow when the request is resolved without a start.
+     *
+     * @return the request time in effect for key
+     */
+    public synchronized long onRequest(String key) {
+        // Keep the earliest one of concurrent requests, but not one left by a request which
+        // did not start a process
+        long now = SystemClock.elapsedRealtime();
+        Long time = requestTimes.get(key);
+        if (time == null || now - time > STALE_REQUEST_MILLIS) {
+            requestTimes.put(key, now);
+            return now;
+        }
+        return time;
+    }
+
+    /**
+     * Drop the request time of key if it's still time, the request did not start a process.
+     */
+    public synchronized void cancelRequest(String key, long time) {
+        Long current = requestTimes.get(key);
+        if (current != null && current == time) {
+            requestTimes.remove(key);
+        }
+    }
+
+    /**
+     * Returns the time the service of key is requested, or -1 if unknown.
+     */
+    public synchronized long takeRequestTime(String key) {
+        Long time = requestTimes.remove(key);
+        return time != null ? time : -1;
+    }
+
+    public void onAttach(String packageName, Bundle options) {
+        long attach = SystemClock.elapsedRealtime();
+        long request = options.getLong(EXTRA_REQUEST_TIME, -1);
+        long spawn = options.getLong(EXTRA_SPAWN_TIME, -1);
+        long main = options.getLong(EXTRA_MAIN_TIME, -1);
+        long created = options.getLong(EXTRA_CREATED_TIME, -1);
+        if (request == -1 || spawn == -1 || main == -1 || created == -1) {
+            return;
+        }
+
+        long[] values = {spawn - request, main - spawn, created - main, attach - created, attach - request};
+
+        synchronized (this) {
+            Histogram[] stages = histograms.get(packageName);
+            if (stages == null) {
+                stages = new Histogram[STAGES.length];
+                for (int i = 0; i < STAGES.length; i++) {
+                    stages[i] = new Histogram();
+                }
+                histograms.put(packageName, stages);
+            }
+            for (int i = 0; i < STAGES.length; i++) {
+                stages[i].add(values[i]);
+            }
+        }
+
+        ServerConstants.LOGGER.i("user service of %s started in %d ms (queue=%d, boot=%d, create=%d, attach=%d)",
+                packageName, values[4], values[0], values[1], values[2], values[3]);
+    }
+
+    public void dump(DumpWriter dw) {
+        Map<String, Histogram[]> copy = new ArrayMap<>();
+        synchronized (this) {
+            for (Map.Entry<String, Histogram[]> entry : histograms.entrySet()) {
+                Histogram[] stages = new Histogram[STAGES.length];
+                for (int i = 0; i < STAGES.length; i++) {
+                    stages[i] = entry.getValue()[i].copy();
+                }
+                copy.put(entry.getKey(), stages);
+            }
+        }
+
+        StringBuilder buckets = new StringBuilder();
+        for (long bucket : BUCKETS) {
+            buckets.append(" <=").append(bucket);
+        }
+        buckets.append(" >").append(BUCKETS[BUCKETS.length - 1]);
+
+        dw.beginObject("start_times_ms");
+        dw.value("buckets", buckets.substring(1));
+        for (Map.Entry<String, Histogram[]> entry : copy.entrySet()) {
+            dw.beginObject(entry.getKey());
+            Histogram[] stages = entry.getValue();
+            for (int i = 0; i < STAGES.length; i++) {
+                Histogram histogram = stages[i];
+                StringBuilder sb = new StringBuilder();
+                for (long count : histogram.counts) {
+                    sb.append(' ').append(count);
+                }
+                dw.beginObject(STAGES[i])
+                        .value("count", histogram.count)
+                        .value("avg", histogram.sum / histogram.count)
+                        .value("max", histogram.max)
+                        .value("buckets", sb.substring(1))
+                        .endObject();
+            }
+            dw.endObject();
+        }
+        dw.endObject();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package rikka.sui.server;
+
+import static rikka.sui.server.ServerConstants.LOGGER;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Keeps one user service process booted ahead of time (see
+ * {@link rikka.sui.server.userservice.Zygote}), so that starting a user service does not
+ * have to wait for app_process to boot the runtime and load classes.
+ */
+public class SuiUserServiceZygote {
+
+    private static final String CMD_FORMAT = "CLASSPATH='%s' exec /system/bin/app_process /system/bin " +
+            "--nice-name='%s' %s >/dev/null 2>&1";
+
+    private static final String NICE_NAME = "sui_user_service_zygote";
+
+    private final String dexPath;
+    private Process standby;
+
+    public SuiUserServiceZygote(String dexPath) {
+        this.dexPath = dexPath;
+    }
+
+    private static boolean isAlive(Process process) {
+        try {
+            process.exitValue();
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Start a standby process if there isn't one.
+     */
+    public synchronized void prepare() {
+        if (standby != null && isAlive(standby)) {
+            return;
+        }
+
+        String cmd = String.format(Locale.ENGLISH, CMD_FORMAT,
+                dexPath, NICE_NAME,
+                "rikka.sui.server.userservice.Zygote");
+        try {
+            standby = Runtime.getRuntime().exec(new String[]{"/system/bin/sh", "-c", cmd});
+            LOGGER.v("standby user service process started");
+        } catch (Throwable e) {
+            LOGGER.w(e, "start standby user service process");
+            standby = null;
+        }
+    }
+
+    /**
+     * Hand a user service to the standby process, and start a new standby process.
+     *
+     * @return the process which becomes the user service, or null if no standby process is
+     * available, the caller should start the user service by itself.
+     */
+    public synchronized Process start(String niceName, long requestTime, long spawnTime, String[] args) {
+        Process process = standby;
+        standby = null;
+
+        Process res = null;
+        if (process != null && isAlive(process)) {
+            try (DataOutputStream out = new DataOutputStream(process.getOutputStream())) {
+                out.writeUTF(niceName);
+                out.writeLong(requestTime);
+                out.writeLong(spawnTime);
+                out.writeInt(args.length);
+                for (String arg : args) {
+                    out.writeUTF(arg);
+                }
+                res = process;
+            } catch (IOException e) {
+                LOGGER.w(e, "send args to standby user service process");
+                process.destroy();
+            }
+        }
+
+        prepare();
+        return res;
+    }
+}
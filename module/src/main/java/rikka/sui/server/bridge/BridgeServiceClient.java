@@ -19,16 +19,23 @@
 
 package rikka.sui.server.bridge;
 
+import android.os.Build;
 import android.os.IBinder;
 import android.os.Parcel;
+import android.os.Process;
 import android.os.ServiceManager;
+import android.os.SystemClock;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.util.Map;
 
 import rikka.sui.server.SuiService;
+import rikka.sui.util.OsUtils;
+import rikka.sui.util.TraceBuffer;
 
 import static rikka.sui.server.ServerConstants.LOGGER;
+import static rikka.sui.server.ServerConstants.TRACE;
 
 public class BridgeServiceClient {
 
@@ -39,6 +46,10 @@ public class BridgeServiceClient {
     private static final int ACTION_SEND_BINDER = 1;
     private static final int ACTION_GET_BINDER = ACTION_SEND_BINDER + 1;
     private static final int ACTION_NOTIFY_FINISHED = ACTION_SEND_BINDER + 2;
+    private static final int ACTION_UPDATE_HIDDEN_UIDS = ACTION_SEND_BINDER + 3;
+    private static final int ACTION_DUMP_TRACE = ACTION_SEND_BINDER + 4;
+
+    private static final long POLL_INTERVAL_MILLIS = 100;
 
     private static class DeathRecipient implements IBinder.DeathRecipient {
 
@@ -52,6 +63,9 @@ public class BridgeServiceClient {
         public void binderDied() {
             binder.unlinkToDeath(this, 0);
 
+            diedAt = SystemClock.elapsedRealtime();
+            registered = false;
+            restarts++;
             LOGGER.i("service %s is dead.", BRIDGE_SERVICE_NAME);
 
             try {
@@ -73,7 +87,8 @@ public class BridgeServiceClient {
                 LOGGER.w(e, "clear ServiceManager");
             }
 
-            sendToBridge(true);
+            // Don't block the binder thread which delivers the death notification
+            new Thread(() -> sendToBridge(true), "SuiReattach").start();
         }
     }
 
@@ -85,47 +100,98 @@ public class BridgeServiceClient {
     }
 
     private static Listener listener;
+    private static long diedAt = -1;
+    private static long lastReattachMillis = -1;
+    private static volatile boolean registered;
+    private static volatile int restarts;
+    private static Method waitForServiceMethod;
+
+    /**
+     * Returns how long it took to re-register with the new system_server after the last
+     * restart, or -1 if system_server has not restarted since the server started.
+     */
+    public static long getLastReattachMillis() {
+        return lastReattachMillis;
+    }
 
-    private static void sendToBridge(boolean isRestart) {
-        IBinder bridgeService;
+    /**
+     * Returns if the server is registered with the bridge in the current system_server.
+     */
+    public static boolean isRegistered() {
+        return registered;
+    }
+
+    public static int getRestartCount() {
+        return restarts;
+    }
+
+    private static IBinder waitForService() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            // ServiceManager#waitForService blocks on servicemanager's registration callback
+            try {
+                if (waitForServiceMethod == null) {
+                    //noinspection JavaReflectionMemberAccess
+                    waitForServiceMethod = ServiceManager.class.getDeclaredMethod("waitForService", String.class);
+                }
+                IBinder binder = (IBinder) waitForServiceMethod.invoke(null, BRIDGE_SERVICE_NAME);
+                if (binder != null && binder.pingBinder()) {
+                    return binder;
+                }
+            } catch (Throwable e) {
+                LOGGER.w(e, "waitForService");
+            }
+        }
+
+        IBinder binder;
+        int count = 0;
         do {
-            bridgeService = ServiceManager.getService(BRIDGE_SERVICE_NAME);
-            if (bridgeService != null && bridgeService.pingBinder()) {
+            binder = ServiceManager.getService(BRIDGE_SERVICE_NAME);
+            if (binder != null && binder.pingBinder()) {
                 break;
             }
 
-            LOGGER.i("service %s is not started, wait 1s.", BRIDGE_SERVICE_NAME);
+            if (count++ % 10 == 0) {
+                LOGGER.i("service %s is not started, wait.", BRIDGE_SERVICE_NAME);
+            }
 
             try {
                 //noinspection BusyWait
-                Thread.sleep(1000);
+                Thread.sleep(POLL_INTERVAL_MILLIS);
             } catch (Throwable e) {
                 LOGGER.w("sleep", e);
             }
         } while (true);
+        return binder;
+    }
+
+    private static void sendToBridge(boolean isRestart) {
+        IBinder bridgeService = waitForService();
 
         if (isRestart && listener != null) {
             listener.onSystemServerRestarted();
         }
 
-        try {
-            bridgeService.linkToDeath(new DeathRecipient(bridgeService), 0);
-        } catch (Throwable e) {
-            LOGGER.w(e, "linkToDeath");
-            sendToBridge(false);
-            return;
+        while (true) {
+            try {
+                bridgeService.linkToDeath(new DeathRecipient(bridgeService), 0);
+                break;
+            } catch (Throwable e) {
+                LOGGER.w(e, "linkToDeath");
+                bridgeService = waitForService();
+            }
         }
 
-        Parcel data = Parcel.obtain();
-        Parcel reply = Parcel.obtain();
         boolean res = false;
         for (int i = 0; i < 3; i++) {
+            Parcel data = Parcel.obtain();
+            Parcel reply = Parcel.obtain();
             try {
                 data.writeInterfaceToken(BRIDGE_SERVICE_DESCRIPTOR);
                 data.writeInt(ACTION_SEND_BINDER);
-                IBinder binder = SuiService.getInstance();
-                LOGGER.v("binder %s", binder);
-                data.writeStrongBinder(binder);
+                SuiService service = SuiService.getInstance();
+                LOGGER.v("binder %s", service);
+                data.writeStrongBinder(service);
+                data.writeIntArray(service.getHiddenUids());
                 res = bridgeService.transact(BRIDGE_TRANSACTION_CODE, data, reply, 0);
                 reply.readException();
             } catch (Throwable e) {
@@ -145,6 +211,14 @@ public class BridgeServiceClient {
             }
         }
 
+        registered = res;
+
+        if (res && isRestart && diedAt != -1) {
+            lastReattachMillis = SystemClock.elapsedRealtime() - diedAt;
+            LOGGER.i("time-to-reattach: %d ms", lastReattachMillis);
+            TRACE.record(TraceBuffer.EVENT_BRIDGE_REATTACH, OsUtils.getUid(), Process.myPid(), 0, diedAt * 1000000);
+        }
+
         if (listener != null) {
             listener.onResponseFromBridgeService(res);
         }
@@ -182,4 +256,51 @@ public class BridgeServiceClient {
             LOGGER.w("notify started");
         }
     }
+
+    /**
+     * Returns the binary trace of the bridge in system_server, or null.
+     */
+    public static byte[] dumpTrace() {
+        IBinder bridgeService = ServiceManager.getService(BRIDGE_SERVICE_NAME);
+        if (bridgeService == null) {
+            return null;
+        }
+
+        Parcel data = Parcel.obtain();
+        Parcel reply = Parcel.obtain();
+        try {
+            data.writeInterfaceToken(BRIDGE_SERVICE_DESCRIPTOR);
+            data.writeInt(ACTION_DUMP_TRACE);
+            if (!bridgeService.transact(BRIDGE_TRANSACTION_CODE, data, reply, 0)) {
+                return null;
+            }
+            reply.readException();
+            return reply.createByteArray();
+        } catch (Throwable e) {
+            LOGGER.w(e, "dump trace");
+            return null;
+        } finally {
+            data.recycle();
+            reply.recycle();
+        }
+    }
+
+    public static void updateHiddenUids(int[] uids) {
+        IBinder bridgeService = ServiceManager.getService(BRIDGE_SERVICE_NAME);
+        if (bridgeService == null) {
+            return;
+        }
+
+        Parcel data = Parcel.obtain();
+        try {
+            data.writeInterfaceToken(BRIDGE_SERVICE_DESCRIPTOR);
+            data.writeInt(ACTION_UPDATE_HIDDEN_UIDS);
+            data.writeIntArray(uids);
+            bridgeService.transact(BRIDGE_TRANSACTION_CODE, data, null, IBinder.FLAG_ONEWAY);
+        } catch (Throwable e) {
+            LOGGER.w(e, "update hidden uids");
+        } finally {
+            data.recycle();
+        }
+    }
 }
@@ -26,11 +26,13 @@ import android.os.IBinder;
 import android.os.Looper;
 import android.os.Parcel;
 import android.os.ServiceManager;
+import android.os.SystemClock;
 import android.util.Log;
 import android.util.Pair;
 
 import moe.shizuku.server.IShizukuService;
 import rikka.shizuku.server.UserService;
+import rikka.sui.server.SuiUserServiceTelemetry;
 
 public class Starter {
 
@@ -40,7 +42,28 @@ public class Starter {
     private static final String BRIDGE_SERVICE_NAME = "activity";
     private static final int BRIDGE_ACTION_GET_BINDER = 2;
 
+    private static long mainTime;
+    private static long createdTime;
+
+    private static long getTimeProperty(String name) {
+        try {
+            return Long.parseLong(System.getProperty(name, "-1"));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     public static void main(String[] args) {
+        main(args, null);
+    }
+
+    /**
+     * @param serviceBinder binder of the server if it's already known, or null to get it
+     *                      from system_server
+     */
+    static void main(String[] args, IBinder serviceBinder) {
+        mainTime = SystemClock.elapsedRealtime();
+
         if (Looper.getMainLooper() == null) {
             Looper.prepareMainLooper();
         }
@@ -50,6 +73,7 @@ public class Starter {
 
         UserService.setTag(TAG);
         Pair<IBinder, String> result = UserService.create(args);
+        createdTime = SystemClock.elapsedRealtime();
 
         if (result == null) {
             System.exit(1);
@@ -59,7 +83,7 @@ public class Starter {
         service = result.first;
         token = result.second;
 
-        if (!sendBinder(service, token)) {
+        if (!sendBinder(service, token, serviceBinder)) {
             System.exit(1);
         }
 
@@ -69,7 +93,7 @@ public class Starter {
         Log.i(TAG, "service exited");
     }
 
-    private static IBinder requestBinderFromBridge() {
+    static IBinder requestBinderFromBridge() {
         IBinder binder = ServiceManager.getService(BRIDGE_SERVICE_NAME);
         if (binder == null) return null;
 
@@ -93,14 +117,22 @@ public class Starter {
         return null;
     }
 
-    private static boolean sendBinder(IBinder binder, String token) {
-        IShizukuService shizukuService = IShizukuService.Stub.asInterface(requestBinderFromBridge());
+    private static boolean sendBinder(IBinder binder, String token, IBinder serviceBinder) {
+        if (serviceBinder == null || !serviceBinder.isBinderAlive()) {
+            serviceBinder = requestBinderFromBridge();
+        }
+
+        IShizukuService shizukuService = IShizukuService.Stub.asInterface(serviceBinder);
         if (shizukuService == null) {
             return false;
         }
 
         Bundle data = new Bundle();
         data.putString(USER_SERVICE_ARG_TOKEN, token);
+        data.putLong(SuiUserServiceTelemetry.EXTRA_REQUEST_TIME, getTimeProperty(SuiUserServiceTelemetry.PROPERTY_REQUEST_TIME));
+        data.putLong(SuiUserServiceTelemetry.EXTRA_SPAWN_TIME, getTimeProperty(SuiUserServiceTelemetry.PROPERTY_SPAWN_TIME));
+        data.putLong(SuiUserServiceTelemetry.EXTRA_MAIN_TIME, mainTime);
+        data.putLong(SuiUserServiceTelemetry.EXTRA_CREATED_TIME, createdTime);
         try {
             shizukuService.attachUserService(binder, data);
         } catch (Throwable e) {
@@ -0,0 +1,116 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package rikka.sui.server.userservice;
+
+import android.os.IBinder;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+
+import moe.shizuku.server.IShizukuService;
+import rikka.shizuku.server.UserService;
+import rikka.sui.server.SuiUserServiceTelemetry;
+
+/**
+ * Entry of the standby user service process.
+ * <p>
+ * The process is started ahead of time by the root server, once the binder of the server is in
+ * the bridge. It boots the runtime, loads the classes every user service needs and gets the
+ * binder of the server from the bridge in system_server, then waits for the root server to write
+ * the arguments of the user service it should become to stdin. Attaching the user service is
+ * then a single call to the server.
+ * <p>
+ * The binder still comes from system_server, only ahead of time: stdin can't carry a binder,
+ * and the process has no binder the root server could call to hand its own over.
+ */
+public class Zygote {
+
+    private static final String TAG = "SuiUserServiceZygote";
+
+    private static final String[] PRELOAD_CLASSES = {
+            "android.app.ActivityThread",
+            "android.app.ContextImpl",
+            "android.app.LoadedApk",
+            "android.content.pm.ApplicationInfo",
+            "android.content.res.AssetManager",
+            "android.content.res.Resources",
+            "android.os.Bundle",
+            "android.os.Parcel",
+            "android.os.ServiceManager",
+            "dalvik.system.PathClassLoader",
+    };
+
+    private static void preload() {
+        for (String name : PRELOAD_CLASSES) {
+            try {
+                Class.forName(name);
+            } catch (Throwable e) {
+                Log.w(TAG, "preload " + name + ": " + e.getMessage());
+            }
+        }
+
+        // Class literals so that they are not renamed away
+        Class<?>[] classes = {UserService.class, Starter.class, IShizukuService.class, IShizukuService.Stub.class};
+        for (Class<?> cls : classes) {
+            try {
+                Class.forName(cls.getName(), true, cls.getClassLoader());
+            } catch (Throwable e) {
+                Log.w(TAG, "preload " + cls.getName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static void setArgV0(String niceName) {
+        try {
+            //noinspection JavaReflectionMemberAccess
+            Method method = android.os.Process.class.getDeclaredMethod("setArgV0", String.class);
+            method.invoke(null, niceName);
+        } catch (Throwable e) {
+            Log.w(TAG, "setArgV0: " + e.getMessage());
+        }
+    }
+
+    public static void main(String[] args) {
+        preload();
+        IBinder serviceBinder = Starter.requestBinderFromBridge();
+
+        String niceName;
+        String[] serviceArgs;
+        try {
+            DataInputStream in = new DataInputStream(System.in);
+            niceName = in.readUTF();
+            System.setProperty(SuiUserServiceTelemetry.PROPERTY_REQUEST_TIME, Long.toString(in.readLong()));
+            System.setProperty(SuiUserServiceTelemetry.PROPERTY_SPAWN_TIME, Long.toString(in.readLong()));
+            serviceArgs = new String[in.readInt()];
+            for (int i = 0; i < serviceArgs.length; i++) {
+                serviceArgs[i] = in.readUTF();
+            }
+        } catch (IOException e) {
+            // The root server has gone before assigning a service to us
+            System.exit(0);
+            return;
+        }
+
+        setArgV0(niceName);
+        Starter.main(serviceArgs, serviceBinder);
+    }
+}
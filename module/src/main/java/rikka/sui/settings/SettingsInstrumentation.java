@@ -55,35 +55,38 @@ import com.android.internal.content.ReferrerIntent;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import rikka.sui.resource.SuiApk;
+import rikka.sui.shortcut.SuiShortcut;
 import rikka.sui.util.InstrumentationUtil;
 
 public class SettingsInstrumentation extends Instrumentation {
 
+    // SuiApk needs the binder of the server and loads the apk, which is slow and rarely needed,
+    // so it's loaded in background and only waited for when a Sui shortcut intent arrives
+    private static final long LOAD_TIMEOUT_MILLIS = 15 * 1000;
+
     private final Instrumentation original;
     private final Application application;
+    private final Future<SuiApk> suiApk;
 
-    @SuppressWarnings("FieldCanBeLocal")
-    private final ClassLoader classLoader;
-    private final Class<?> suiActivityClass;
-    private final Constructor<?> suiActivityConstructor;
-    private final Resources resources;
-
-    public SettingsInstrumentation(Instrumentation original, SuiApk suiApk) {
+    public SettingsInstrumentation(Instrumentation original, Future<SuiApk> suiApk) {
         this.original = original;
+        this.suiApk = suiApk;
 
         application = ActivityThread.currentActivityThread().getApplication();
-        classLoader = suiApk.getClassLoader();
-        suiActivityClass = suiApk.getSuiActivityClass();
-        suiActivityConstructor = suiApk.getSuiActivityConstructor();
-        resources = suiApk.getResources();
 
         application.registerComponentCallbacks(new ComponentCallbacks2() {
 
             @Override
             public void onConfigurationChanged(@NonNull Configuration newConfig) {
-                resources.updateConfiguration(newConfig, resources.getDisplayMetrics());
+                SuiApk apk = getSuiApkIfLoaded();
+                if (apk != null) {
+                    Resources resources = apk.getResources();
+                    resources.updateConfiguration(newConfig, resources.getDisplayMetrics());
+                }
             }
 
             @Override
@@ -98,14 +101,45 @@ public class SettingsInstrumentation extends Instrumentation {
         });
     }
 
-    public Resources getResources() {
-        return resources;
+    @Nullable
+    private SuiApk getSuiApkIfLoaded() {
+        if (!suiApk.isDone()) {
+            return null;
+        }
+        try {
+            return suiApk.get();
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    @Nullable
+    private SuiApk waitForSuiApk() {
+        try {
+            return suiApk.get(LOAD_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (Throwable e) {
+            LOGGER.e(e, "Cannot load apk");
+            return null;
+        }
+    }
+
+    @Nullable
+    private ClassLoader getSuiClassLoader(Activity activity) {
+        SuiApk apk = getSuiApkIfLoaded();
+        Class<?> suiActivityClass = apk != null ? apk.getSuiActivityClass() : null;
+        if (suiActivityClass != null && suiActivityClass.isAssignableFrom(activity.getClass())) {
+            return apk.getClassLoader();
+        }
+        return null;
     }
 
     @Override
     public Activity newActivity(ClassLoader cl, String className, Intent intent) throws ClassNotFoundException, IllegalAccessException, InstantiationException {
         LOGGER.v("newActivity: %s", className);
-        if (suiActivityConstructor == null) {
+
+        // Ordinary intents of Settings are filtered out by flags and identifier, without
+        // unparcelling or copying extras
+        if (!SuiShortcut.isCandidate(intent)) {
             return original.newActivity(cl, className, intent);
         }
 
@@ -117,11 +151,15 @@ public class SettingsInstrumentation extends Instrumentation {
         if (extras != null) {
             extras.setClassLoader(cl);
             if (extras.getInt(SHORTCUT_EXTRA, -1) != -1) {
-                LOGGER.v("creating SuiActivity");
-                try {
-                    return (Activity) suiActivityConstructor.newInstance(application, resources);
-                } catch (InvocationTargetException e) {
-                    LOGGER.e(e, "Cannot create activity");
+                SuiApk apk = waitForSuiApk();
+                Constructor<?> suiActivityConstructor = apk != null ? apk.getSuiActivityConstructor() : null;
+                if (suiActivityConstructor != null) {
+                    LOGGER.v("creating SuiActivity");
+                    try {
+                        return (Activity) suiActivityConstructor.newInstance(application, apk.getResources());
+                    } catch (InvocationTargetException e) {
+                        LOGGER.e(e, "Cannot create activity");
+                    }
                 }
             }
         }
@@ -345,8 +383,9 @@ public class SettingsInstrumentation extends Instrumentation {
     @Override
     public void callActivityOnCreate(Activity activity, @Nullable Bundle icicle) {
         LOGGER.d("callActivityOnCreate: %s", activity);
-        if (icicle != null && suiActivityClass.isAssignableFrom(activity.getClass())) {
-            icicle.setClassLoader(classLoader);
+        ClassLoader suiClassLoader = getSuiClassLoader(activity);
+        if (icicle != null && suiClassLoader != null) {
+            icicle.setClassLoader(suiClassLoader);
         }
         original.callActivityOnCreate(activity, icicle);
     }
@@ -354,8 +393,9 @@ public class SettingsInstrumentation extends Instrumentation {
     @Override
     public void callActivityOnCreate(Activity activity, @Nullable Bundle icicle, PersistableBundle persistentState) {
         LOGGER.d("callActivityOnCreate: %s", activity);
-        if (icicle != null && suiActivityClass.isAssignableFrom(activity.getClass())) {
-            icicle.setClassLoader(classLoader);
+        ClassLoader suiClassLoader = getSuiClassLoader(activity);
+        if (icicle != null && suiClassLoader != null) {
+            icicle.setClassLoader(suiClassLoader);
         }
         original.callActivityOnCreate(activity, icicle, persistentState);
     }
@@ -368,8 +408,9 @@ public class SettingsInstrumentation extends Instrumentation {
     @Override
     public void callActivityOnRestoreInstanceState(@NonNull Activity activity, @NonNull Bundle savedInstanceState) {
         LOGGER.d("callActivityOnRestoreInstanceState: %s", activity);
-        if (suiActivityClass.isAssignableFrom(activity.getClass())) {
-            savedInstanceState.setClassLoader(classLoader);
+        ClassLoader suiClassLoader = getSuiClassLoader(activity);
+        if (suiClassLoader != null) {
+            savedInstanceState.setClassLoader(suiClassLoader);
         }
         original.callActivityOnRestoreInstanceState(activity, savedInstanceState);
     }
@@ -377,8 +418,9 @@ public class SettingsInstrumentation extends Instrumentation {
     @Override
     public void callActivityOnRestoreInstanceState(@NonNull Activity activity, @Nullable Bundle savedInstanceState, @Nullable PersistableBundle persistentState) {
         LOGGER.d("callActivityOnRestoreInstanceState: %s", activity);
-        if (savedInstanceState != null && suiActivityClass.isAssignableFrom(activity.getClass())) {
-            savedInstanceState.setClassLoader(classLoader);
+        ClassLoader suiClassLoader = getSuiClassLoader(activity);
+        if (savedInstanceState != null && suiClassLoader != null) {
+            savedInstanceState.setClassLoader(suiClassLoader);
         }
         original.callActivityOnRestoreInstanceState(activity, savedInstanceState, persistentState);
     }
@@ -386,8 +428,9 @@ public class SettingsInstrumentation extends Instrumentation {
     @Override
     public void callActivityOnPostCreate(@NonNull Activity activity, @Nullable Bundle savedInstanceState) {
         LOGGER.d("callActivityOnPostCreate: %s", activity);
-        if (savedInstanceState != null && suiActivityClass.isAssignableFrom(activity.getClass())) {
-            savedInstanceState.setClassLoader(classLoader);
+        ClassLoader suiClassLoader = getSuiClassLoader(activity);
+        if (savedInstanceState != null && suiClassLoader != null) {
+            savedInstanceState.setClassLoader(suiClassLoader);
         }
         original.callActivityOnPostCreate(activity, savedInstanceState);
     }
@@ -395,8 +438,9 @@ public class SettingsInstrumentation extends Instrumentation {
     @Override
     public void callActivityOnPostCreate(@NonNull Activity activity, @Nullable Bundle savedInstanceState, @Nullable PersistableBundle persistentState) {
         LOGGER.d("callActivityOnPostCreate: %s", activity);
-        if (savedInstanceState != null && suiActivityClass.isAssignableFrom(activity.getClass())) {
-            savedInstanceState.setClassLoader(classLoader);
+        ClassLoader suiClassLoader = getSuiClassLoader(activity);
+        if (savedInstanceState != null && suiClassLoader != null) {
+            savedInstanceState.setClassLoader(suiClassLoader);
         }
         original.callActivityOnPostCreate(activity, savedInstanceState, persistentState);
     }
@@ -435,8 +479,9 @@ public class SettingsInstrumentation extends Instrumentation {
     @Override
     public void callActivityOnSaveInstanceState(@NonNull Activity activity, @NonNull Bundle outState) {
         LOGGER.d("callActivityOnSaveInstanceState: %s", activity);
-        if (suiActivityClass.isAssignableFrom(activity.getClass())) {
-            outState.setClassLoader(classLoader);
+        ClassLoader suiClassLoader = getSuiClassLoader(activity);
+        if (suiClassLoader != null) {
+            outState.setClassLoader(suiClassLoader);
         }
         original.callActivityOnSaveInstanceState(activity, outState);
     }
@@ -444,8 +489,9 @@ public class SettingsInstrumentation extends Instrumentation {
     @Override
     public void callActivityOnSaveInstanceState(@NonNull Activity activity, @NonNull Bundle outState, @NonNull PersistableBundle outPersistentState) {
         LOGGER.d("callActivityOnSaveInstanceState: %s", activity);
-        if (suiActivityClass.isAssignableFrom(activity.getClass())) {
-            outState.setClassLoader(classLoader);
+        ClassLoader suiClassLoader = getSuiClassLoader(activity);
+        if (suiClassLoader != null) {
+            outState.setClassLoader(suiClassLoader);
         }
         original.callActivityOnSaveInstanceState(activity, outState, outPersistentState);
     }
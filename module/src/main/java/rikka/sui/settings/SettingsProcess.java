@@ -27,14 +27,16 @@ import android.app.Activity;
 import android.app.ActivityThread;
 import android.app.Application;
 import android.app.Instrumentation;
+import android.content.BroadcastReceiver;
+import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.ResolveInfo;
 import android.content.res.Resources;
 import android.os.Binder;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.UserManager;
 import android.provider.Settings;
 import android.util.Log;
@@ -42,16 +44,23 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.util.Arrays;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import rikka.sui.resource.SuiApk;
 import rikka.sui.shortcut.SuiShortcut;
 
 public class SettingsProcess {
 
+    private static final String SHORTCUT_VERSION_FILE = "sui_shortcut_version";
+
     private static boolean reflection = false;
-    private static Handler handler;
-    private static HandlerThread handlerThread;
 
     private static void requestPinnedShortcutInDeveloperOptions(Application application, Resources resources) {
         ResolveInfo ri = application.getPackageManager().resolveActivity(
@@ -122,31 +131,63 @@ public class SettingsProcess {
         LOGGER.d("registerActivityLifecycleCallbacks");
     }
 
-    @TargetApi(Build.VERSION_CODES.O)
-    private static void shortcutStuff(Application application, Resources resources) {
-        UserManager userManager = application.getSystemService(UserManager.class);
-        if (!userManager.isUserUnlocked()) {
-            LOGGER.v("Not unlocked, wait 5s");
-            handler.postDelayed(() -> shortcutStuff(application, resources), 5000);
-            return;
+    private static File getShortcutVersionFile(Application application) {
+        return new File(application.getNoBackupFilesDir(), SHORTCUT_VERSION_FILE);
+    }
+
+    private static boolean isShortcutStateCurrent(Application application, String state) {
+        File file = getShortcutVersionFile(application);
+        if (!file.exists()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readUTF().equals(state);
+        } catch (Throwable e) {
+            LOGGER.w(e, "read %s", file);
+            return false;
         }
+    }
 
-        boolean hasDynamic;
-        try {
-            hasDynamic = SuiShortcut.updateExistingShortcuts(application, resources);
+    private static void setShortcutStateCurrent(Application application, String state) {
+        File file = getShortcutVersionFile(application);
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeUTF(state);
         } catch (Throwable e) {
-            LOGGER.e(e, "updateExistingShortcuts");
-            hasDynamic = false;
+            LOGGER.w(e, "write %s", file);
         }
+    }
 
-        if (!hasDynamic) {
+    @TargetApi(Build.VERSION_CODES.O)
+    private static void onUserUnlocked(Application application, Resources resources) {
+        // The icon is rendered with the accent color and density, not only the module version
+        String state = SuiShortcut.getIconState(application);
+        if (isShortcutStateCurrent(application, state)) {
+            LOGGER.i("Shortcuts are up to date for %s", state);
+        } else {
+            boolean succeeded = true;
+            boolean hasDynamic;
             try {
-                SuiShortcut.addDynamicShortcut(application, resources);
+                hasDynamic = SuiShortcut.updateExistingShortcuts(application, resources);
             } catch (Throwable e) {
-                LOGGER.e(e, "addDynamicShortcut");
+                LOGGER.e(e, "updateExistingShortcuts");
+                hasDynamic = false;
+                succeeded = false;
+            }
+
+            if (!hasDynamic) {
+                try {
+                    SuiShortcut.addDynamicShortcut(application, resources);
+                } catch (Throwable e) {
+                    LOGGER.e(e, "addDynamicShortcut");
+                    succeeded = false;
+                }
+            } else {
+                LOGGER.i("Dynamic shortcut exists and up to date");
+            }
+
+            if (succeeded) {
+                setShortcutStateCurrent(application, state);
             }
-        } else {
-            LOGGER.i("Dynamic shortcut exists and up to date");
         }
 
         try {
@@ -154,35 +195,68 @@ public class SettingsProcess {
         } catch (Throwable e) {
             LOGGER.e(e, "requestPinnedShortcutInDeveloperOptions");
         }
+    }
+
+    @TargetApi(Build.VERSION_CODES.O)
+    private static void shortcutStuff(Application application, Resources resources) {
+        UserManager userManager = application.getSystemService(UserManager.class);
+        if (userManager.isUserUnlocked()) {
+            onUserUnlocked(application, resources);
+            return;
+        }
+
+        LOGGER.v("Not unlocked, wait for %s", Intent.ACTION_USER_UNLOCKED);
+        AtomicBoolean handled = new AtomicBoolean();
+        BroadcastReceiver receiver = new BroadcastReceiver() {
+
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                if (handled.compareAndSet(false, true)) {
+                    application.unregisterReceiver(this);
+                    onUserUnlocked(application, resources);
+                }
+            }
+        };
+        application.registerReceiver(receiver, new IntentFilter(Intent.ACTION_USER_UNLOCKED), null, WorkerHandler.get());
 
-        handlerThread.quit();
+        // The user may be unlocked before the receiver is registered
+        if (userManager.isUserUnlocked() && handled.compareAndSet(false, true)) {
+            application.unregisterReceiver(receiver);
+            onUserUnlocked(application, resources);
+        }
     }
 
-    private static void postBindApplication(ActivityThread activityThread) {
+    private static SuiApk loadSuiApk(Application application) {
         SuiApk suiApk = SuiApk.createForSettings();
         if (suiApk == null) {
             LOGGER.e("Cannot load apk");
-            return;
+            return null;
         }
 
-        Instrumentation instrumentation = ActivityThreadUtil.getInstrumentation(activityThread);
-        SettingsInstrumentation newInstrumentation = new SettingsInstrumentation(instrumentation, suiApk);
-        ActivityThreadUtil.setInstrumentation(activityThread, newInstrumentation);
-        LOGGER.d("setInstrumentation: %s -> %s", instrumentation, newInstrumentation);
-
-        Application application = activityThread.getApplication();
         if (application == null) {
             LOGGER.e("Application is null after bindApplication, cannot add shortcut");
-            return;
+            return suiApk;
         }
 
-        Resources resources = newInstrumentation.getResources();
-        if (resources != null) {
-            handlerThread = new HandlerThread("Sui");
-            handlerThread.start();
-            handler = new Handler(handlerThread.getLooper());
-            handler.post(() -> shortcutStuff(application, resources));
+        // Not in this task, SuiActivity may be waiting for the apk
+        Resources resources = suiApk.getResources();
+        if (resources != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            WorkerHandler.get().post(() -> shortcutStuff(application, resources));
         }
+        return suiApk;
+    }
+
+    private static void postBindApplication(ActivityThread activityThread) {
+        Application application = activityThread.getApplication();
+
+        // Don't block the main thread of Settings, SuiApk is only needed when SuiActivity is opened
+        FutureTask<SuiApk> suiApk = new FutureTask<>(() -> loadSuiApk(application));
+        WorkerHandler.get().post(suiApk);
+
+        Instrumentation instrumentation = ActivityThreadUtil.getInstrumentation(activityThread);
+        SettingsInstrumentation newInstrumentation = new SettingsInstrumentation(instrumentation, suiApk);
+        ActivityThreadUtil.setInstrumentation(activityThread, newInstrumentation);
+        LOGGER.d("setInstrumentation: %s -> %s", instrumentation, newInstrumentation);
     }
 
     @SuppressLint("DiscouragedPrivateApi")
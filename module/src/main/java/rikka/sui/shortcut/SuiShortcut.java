@@ -35,6 +35,7 @@ import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.drawable.AdaptiveIconDrawable;
@@ -43,13 +44,22 @@ import android.graphics.drawable.Icon;
 import android.os.Build;
 import android.provider.Settings;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+
+import rikka.sui.BuildConfig;
 
 public class SuiShortcut {
 
     private static final String PACKAGE_NAME = "com.android.settings";
     private static final int FLAGS = Intent.FLAG_ACTIVITY_CLEAR_TASK | Intent.FLAG_ACTIVITY_NEW_TASK;
+    private static final String ICON_CACHE_PREFIX = "sui_shortcut_icon_";
+
+    private static String iconCacheName;
+    private static Bitmap iconCache;
 
     public static Intent getIntent(Context context, boolean requiresStandardLaunchMode) {
         String[] actions = new String[]{
@@ -99,10 +109,29 @@ public class SuiShortcut {
         }
 
         intent.setFlags(FLAGS);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            intent.setIdentifier(SHORTCUT_ID);
+        }
         intent.putExtra(SHORTCUT_EXTRA, 1);
         return intent;
     }
 
+    /**
+     * Cheap check if intent may be the shortcut intent, without touching extras.
+     * Only when this returns true, extras need to be checked.
+     */
+    public static boolean isCandidate(Intent intent) {
+        if ((intent.getFlags() & FLAGS) != FLAGS) {
+            return false;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            // Shortcuts created by old versions don't have identifier
+            String identifier = intent.getIdentifier();
+            return identifier == null || SHORTCUT_ID.equals(identifier);
+        }
+        return true;
+    }
+
     @TargetApi(Build.VERSION_CODES.O)
     public static boolean updateExistingShortcuts(Context context, Resources resources) {
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
@@ -148,6 +177,9 @@ public class SuiShortcut {
             if (!intent.hasExtra(SHORTCUT_EXTRA)) {
                 LOGGER.i("Update shortcut %s since it does not have extra", id);
                 shouldUpdate = true;
+            } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && intent.getIdentifier() == null) {
+                LOGGER.i("Update shortcut %s since it does not have identifier", id);
+                shouldUpdate = true;
             }
         }
 
@@ -174,38 +206,115 @@ public class SuiShortcut {
         return hasDynamic;
     }
 
+    private static Bitmap drawIconBitmap(Context themedContext, Resources resources, int size, int accentColor) {
+        Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint();
+        paint.setColor(0xfff5f5f5 /* packages/apps/Settings/res/values/colors.xml shortcut_background */);
+        canvas.drawRect(0, 0, size, size, paint);
+
+        int id = resources.getIdentifier("ic_shortcut_24", "drawable", "rikka.sui");
+        if (id == 0) {
+            throw new IllegalStateException("Cannot find drawable resource ic_shortcut_24");
+        }
+        Drawable drawable = resources.getDrawable(id, themedContext.getTheme());
+
+        int extraInsetsSize = Math.round(size * AdaptiveIconDrawable.getExtraInsetFraction());
+        drawable.setBounds(extraInsetsSize, extraInsetsSize, size - extraInsetsSize, size - extraInsetsSize);
+        drawable.setTint(accentColor);
+        drawable.draw(canvas);
+        return bitmap;
+    }
+
+    /**
+     * Returns the icon from memory or the cache dir of Settings if it's rendered with the same
+     * size, accent color and module version before, or renders and caches it.
+     */
+    @TargetApi(Build.VERSION_CODES.O)
+    private static Bitmap getIconBitmap(Context context, Context themedContext, Resources resources, int size, int accentColor) {
+        String name = ICON_CACHE_PREFIX + getIconState(size, accentColor) + ".png";
+
+        synchronized (SuiShortcut.class) {
+            if (name.equals(iconCacheName) && iconCache != null) {
+                return iconCache;
+            }
+        }
+
+        File dir = context.getCacheDir();
+        File file = new File(dir, name);
+        Bitmap bitmap = null;
+        if (file.exists()) {
+            bitmap = BitmapFactory.decodeFile(file.getPath());
+            if (bitmap == null) {
+                LOGGER.w("Cannot decode cached icon %s", file);
+            }
+        }
+
+        if (bitmap == null) {
+            bitmap = drawIconBitmap(themedContext, resources, size, accentColor);
+
+            File[] files = dir.listFiles((d, n) -> n.startsWith(ICON_CACHE_PREFIX));
+            if (files != null) {
+                for (File f : files) {
+                    //noinspection ResultOfMethodCallIgnored
+                    f.delete();
+                }
+            }
+
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+            } catch (Throwable e) {
+                LOGGER.w(e, "Cannot write icon cache %s", file);
+            }
+        }
+
+        synchronized (SuiShortcut.class) {
+            iconCacheName = name;
+            iconCache = bitmap;
+        }
+        return bitmap;
+    }
+
+    private static Context createThemedContext(Context context) {
+        Configuration configuration = new Configuration(context.getResources().getConfiguration());
+        configuration.uiMode &= ~Configuration.UI_MODE_NIGHT_MASK;
+        configuration.uiMode |= Configuration.UI_MODE_NIGHT_NO;
+        return context.createConfigurationContext(configuration);
+    }
+
+    private static int getIconSize() {
+        return Math.round(Resources.getSystem().getDisplayMetrics().density * 108);
+    }
+
+    private static int getAccentColor(Context themedContext) {
+        TypedArray a = themedContext.getTheme().obtainStyledAttributes(new int[]{android.R.attr.colorAccent});
+        int accentColor = a.getColor(0, 0);
+        a.recycle();
+        return accentColor;
+    }
+
+    private static String getIconState(int size, int accentColor) {
+        return String.format(Locale.ENGLISH, "%d_%08x_%d", size, accentColor, BuildConfig.VERSION_CODE);
+    }
+
+    /**
+     * Returns the size, accent color and module version the icon is rendered with, existing
+     * shortcuts need to be updated when it changes.
+     */
+    public static String getIconState(Context context) {
+        return getIconState(getIconSize(), getAccentColor(createThemedContext(context)));
+    }
+
     @TargetApi(Build.VERSION_CODES.O)
     private static ShortcutInfo createShortcut(Context context, Resources resources) {
         Icon icon;
 
         try {
-            Configuration configuration = new Configuration(context.getResources().getConfiguration());
-            configuration.uiMode &= ~Configuration.UI_MODE_NIGHT_MASK;
-            configuration.uiMode |= Configuration.UI_MODE_NIGHT_NO;
-            Context themedContext = context.createConfigurationContext(configuration);
-            int size = Math.round(Resources.getSystem().getDisplayMetrics().density * 108);
-
-            TypedArray a = themedContext.getTheme().obtainStyledAttributes(new int[]{android.R.attr.colorAccent});
-            int accentColor = a.getColor(0, 0);
-            a.recycle();
-
-            Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
-            Canvas canvas = new Canvas(bitmap);
-            Paint paint = new Paint();
-            paint.setColor(0xfff5f5f5 /* packages/apps/Settings/res/values/colors.xml shortcut_background */);
-            canvas.drawRect(0, 0, size, size, paint);
-
-            int id = resources.getIdentifier("ic_shortcut_24", "drawable", "rikka.sui");
-            if (id == 0) {
-                throw new IllegalStateException("Cannot find drawable resource ic_shortcut_24");
-            }
-            Drawable drawable = resources.getDrawable(id, themedContext.getTheme());
-
-            int extraInsetsSize = Math.round(size * AdaptiveIconDrawable.getExtraInsetFraction());
-            drawable.setBounds(extraInsetsSize, extraInsetsSize, size - extraInsetsSize, size - extraInsetsSize);
-            drawable.setTint(accentColor);
-            drawable.draw(canvas);
+            Context themedContext = createThemedContext(context);
+            int size = getIconSize();
+            int accentColor = getAccentColor(themedContext);
 
+            Bitmap bitmap = getIconBitmap(context, themedContext, resources, size, accentColor);
             icon = Icon.createWithAdaptiveBitmap(bitmap);
         } catch (Throwable e) {
             LOGGER.e(e, "create icon");
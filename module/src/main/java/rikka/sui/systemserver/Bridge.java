@@ -19,25 +19,36 @@
 
 package rikka.sui.systemserver;
 
-import android.content.Intent;
+import android.os.IBinder;
+import android.os.Parcel;
+
+import java.util.List;
 
 import moe.shizuku.server.IShizukuService;
+import rikka.shizuku.ShizukuApiConstants;
+import rikka.sui.model.PackageChange;
+import rikka.sui.server.ServerConstants;
 
 import static rikka.sui.systemserver.SystemServerConstants.LOGGER;
 
 public class Bridge {
 
-    public static void dispatchPackageChanged(Intent intent) {
+    public static void dispatchPackagesChanged(List<PackageChange> changes) {
         IShizukuService service = BridgeService.get();
         if (service == null) {
             LOGGER.d("binder is null");
             return;
         }
 
+        Parcel data = Parcel.obtain();
         try {
-            service.dispatchPackageChanged(intent);
+            data.writeInterfaceToken(ShizukuApiConstants.BINDER_DESCRIPTOR);
+            data.writeTypedList(changes);
+            service.asBinder().transact(ServerConstants.BINDER_TRANSACTION_dispatchPackagesChanged, data, null, IBinder.FLAG_ONEWAY);
         } catch (Throwable e) {
-            LOGGER.w(e, "dispatchPackageChanged");
+            LOGGER.w(e, "dispatchPackagesChanged");
+        } finally {
+            data.recycle();
         }
     }
 
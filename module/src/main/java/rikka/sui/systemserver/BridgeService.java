@@ -20,18 +20,22 @@
 package rikka.sui.systemserver;
 
 import static rikka.sui.systemserver.SystemServerConstants.LOGGER;
+import static rikka.sui.systemserver.SystemServerConstants.TRACE;
 
 import android.os.Binder;
 import android.os.IBinder;
 import android.os.Parcel;
 import android.os.RemoteException;
+import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.util.Arrays;
 import java.util.Objects;
 
 import moe.shizuku.server.IShizukuService;
+import rikka.sui.util.TraceBuffer;
 
 public class BridgeService {
 
@@ -41,10 +45,13 @@ public class BridgeService {
     private static final int ACTION_SEND_BINDER = 1;
     private static final int ACTION_GET_BINDER = ACTION_SEND_BINDER + 1;
     private static final int ACTION_NOTIFY_FINISHED = ACTION_SEND_BINDER + 2;
+    private static final int ACTION_UPDATE_HIDDEN_UIDS = ACTION_SEND_BINDER + 3;
+    private static final int ACTION_DUMP_TRACE = ACTION_SEND_BINDER + 4;
 
     private static final IBinder.DeathRecipient DEATH_RECIPIENT = () -> {
         serviceBinder = null;
         service = null;
+        hiddenUids = null;
         LOGGER.i("service is dead");
     };
 
@@ -52,6 +59,9 @@ public class BridgeService {
     private static IShizukuService service;
     private static boolean serviceStarted;
 
+    // Sorted, published by the server. When null, fall back to ask the server.
+    private static volatile int[] hiddenUids;
+
     public static IShizukuService get() {
         return service;
     }
@@ -82,6 +92,24 @@ public class BridgeService {
         LOGGER.i("binder received");
     }
 
+    private static void setHiddenUids(@Nullable int[] uids) {
+        if (uids != null) {
+            Arrays.sort(uids);
+            if (LOGGER.isLoggable(Log.DEBUG)) {
+                LOGGER.d("hidden uids: %s", Arrays.toString(uids));
+            }
+        }
+        hiddenUids = uids;
+    }
+
+    private static boolean isHidden(int uid) {
+        int[] uids = hiddenUids;
+        if (uids != null) {
+            return Arrays.binarySearch(uids, uid) >= 0;
+        }
+        return Bridge.isHidden(uid);
+    }
+
     public boolean isServiceTransaction(int code) {
         return code == TRANSACTION;
     }
@@ -90,15 +118,20 @@ public class BridgeService {
         data.enforceInterface(DESCRIPTOR);
 
         int action = data.readInt();
-        LOGGER.d("onTransact: action=%d, callingUid=%d, callingPid=%d", action, Binder.getCallingUid(), Binder.getCallingPid());
+        if (LOGGER.isLoggable(Log.DEBUG)) {
+            LOGGER.d("onTransact: action=%d, callingUid=%d, callingPid=%d", action, Binder.getCallingUid(), Binder.getCallingPid());
+        }
 
         switch (action) {
             case ACTION_SEND_BINDER: {
                 if (Binder.getCallingUid() == 0) {
+                    TRACE.record(TraceBuffer.EVENT_BRIDGE_SEND_BINDER, Binder.getCallingUid(), Binder.getCallingPid(), 0);
                     IBinder binder = data.readStrongBinder();
+                    int[] uids = data.dataAvail() > 0 ? data.createIntArray() : null;
                     long identity = Binder.clearCallingIdentity();
                     try {
                         sendBinder(binder);
+                        setHiddenUids(uids);
                     } finally {
                         Binder.restoreCallingIdentity(identity);
                     }
@@ -110,13 +143,19 @@ public class BridgeService {
                 break;
             }
             case ACTION_GET_BINDER: {
-                if (Bridge.isHidden(Binder.getCallingUid())) {
+                long start = TraceBuffer.start();
+                int callingUid = Binder.getCallingUid();
+                boolean hidden = isHidden(callingUid);
+                TRACE.record(TraceBuffer.EVENT_BRIDGE_GET_BINDER, callingUid, Binder.getCallingPid(), hidden ? 0 : 1, start);
+                if (hidden) {
                     return false;
                 }
 
                 if (reply != null) {
                     reply.writeNoException();
-                    LOGGER.d("saved binder is %s", serviceBinder);
+                    if (LOGGER.isLoggable(Log.DEBUG)) {
+                        LOGGER.d("saved binder is %s", serviceBinder);
+                    }
                     reply.writeStrongBinder(serviceBinder);
                 }
                 return true;
@@ -130,6 +169,29 @@ public class BridgeService {
                     }
                     return true;
                 }
+                break;
+            }
+            case ACTION_DUMP_TRACE: {
+                int callingUid = Binder.getCallingUid();
+                if (callingUid == 0 || callingUid == 2000) {
+                    if (reply != null) {
+                        reply.writeNoException();
+                        reply.writeByteArray(TRACE.toByteArray());
+                    }
+                    return true;
+                }
+                break;
+            }
+            case ACTION_UPDATE_HIDDEN_UIDS: {
+                if (Binder.getCallingUid() == 0) {
+                    setHiddenUids(data.createIntArray());
+
+                    if (reply != null) {
+                        reply.writeNoException();
+                    }
+                    return true;
+                }
+                break;
             }
         }
         return false;
@@ -27,26 +27,67 @@ import android.content.Context;
 import android.content.ContextHidden;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.UserHandleHidden;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
 
 import dev.rikka.tools.refine.Refine;
+import rikka.sui.model.PackageChange;
 
 public class PackageReceiver {
 
+    /*
+     * Package broadcasts come in bursts (OTA dexopt, restores, creating users), so they are
+     * collected on the handler thread and forwarded to the server as one oneway transaction.
+     */
+    private static final long BATCH_WINDOW_MILLIS = 300;
+    private static final int BATCH_MAX_SIZE = 64;
+
+    private static final List<PackageChange> PENDING = new ArrayList<>();
+    private static final Runnable FLUSH = PackageReceiver::flush;
+
+    private static Handler handler;
+
     private static final BroadcastReceiver RECEIVER = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
-            Uri uri = intent.getData();
-            String pkgName = (uri != null) ? uri.getSchemeSpecificPart() : null;
-            int uid = intent.getIntExtra(Intent.EXTRA_UID, -1);
-            LOGGER.d("%s: %s (%d)", intent.getAction(), pkgName, uid);
-            Bridge.dispatchPackageChanged(intent);
+            PackageChange change = PackageChange.fromIntent(intent);
+            if (change == null) {
+                return;
+            }
+
+            if (LOGGER.isLoggable(Log.DEBUG)) {
+                LOGGER.d("%s: %s (%d)", intent.getAction(), change.packageName, change.uid);
+            }
+
+            PENDING.add(change);
+            if (PENDING.size() >= BATCH_MAX_SIZE) {
+                handler.removeCallbacks(FLUSH);
+                flush();
+            } else if (PENDING.size() == 1) {
+                handler.postDelayed(FLUSH, BATCH_WINDOW_MILLIS);
+            }
         }
     };
 
+    private static void flush() {
+        if (PENDING.isEmpty()) {
+            return;
+        }
+
+        List<PackageChange> changes = new ArrayList<>(PENDING);
+        PENDING.clear();
+
+        if (LOGGER.isLoggable(Log.DEBUG)) {
+            LOGGER.d("dispatch %d package changes", changes.size());
+        }
+        Bridge.dispatchPackagesChanged(changes);
+    }
+
     public static void register() {
         ActivityThread activityThread = ActivityThread.currentActivityThread();
         if (activityThread == null) {
@@ -60,7 +101,9 @@ public class PackageReceiver {
         intentFilter.addAction(Intent.ACTION_PACKAGE_FULLY_REMOVED);
         intentFilter.addDataScheme("package");
 
-        Handler handler = new Handler(Looper.getMainLooper());
+        if (handler == null) {
+            handler = new Handler(Looper.getMainLooper());
+        }
 
         try {
             Refine.<ContextHidden>unsafeCast(ActivityThread.currentActivityThread().getSystemContext())
@@ -30,6 +30,7 @@ import androidx.annotation.NonNull;
 import java.util.Arrays;
 
 import rikka.sui.util.ParcelUtils;
+import rikka.sui.util.Systrace;
 
 public final class SystemProcess {
 
@@ -52,6 +53,7 @@ public final class SystemProcess {
         }
 
         boolean res;
+        Systrace.begin("Sui:BridgeService.onTransact");
         try {
             res = execActivityTransaction(binder, code, data, reply, flags);
         } catch (Exception e) {
@@ -65,6 +67,7 @@ public final class SystemProcess {
             }
             res = false;
         } finally {
+            Systrace.end();
             data.setDataPosition(0);
             if (reply != null) reply.setDataPosition(0);
         }
@@ -20,8 +20,10 @@
 package rikka.sui.systemserver;
 
 import rikka.sui.util.Logger;
+import rikka.sui.util.TraceBuffer;
 
 public class SystemServerConstants {
 
     public static final Logger LOGGER = new Logger("SuiSystemServer");
+    public static final TraceBuffer TRACE = new TraceBuffer(1024);
 }
@@ -0,0 +1,174 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package rikka.sui.util;
+
+import android.util.JsonWriter;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Writes a dump either as indented text for people, or as a single line of JSON for tools.
+ * <p>
+ * A dump is a tree of objects, arrays and named values. Objects inside an array are begun with
+ * {@link #beginItem(String)}, values inside an array have no name.
+ */
+public class DumpWriter {
+
+    private final PrintWriter pw;
+    private final JsonWriter json;
+    private final StringBuilder indent = new StringBuilder();
+
+    public DumpWriter(PrintWriter pw, boolean json) {
+        this.pw = pw;
+        this.json = json ? new JsonWriter(pw) : null;
+    }
+
+    public boolean isJson() {
+        return json != null;
+    }
+
+    public DumpWriter beginObject(String name) {
+        if (json != null) {
+            try {
+                if (name != null) json.name(name);
+                json.beginObject();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        } else {
+            if (name != null) pw.println(indent + name + ":");
+            indent.append("  ");
+        }
+        return this;
+    }
+
+    /**
+     * Begins an unnamed object in an array, label is only shown in text.
+     */
+    public DumpWriter beginItem(String label) {
+        if (json != null) {
+            try {
+                json.beginObject();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        } else {
+            pw.println(indent + label + ":");
+            indent.append("  ");
+        }
+        return this;
+    }
+
+    public DumpWriter endObject() {
+        if (json != null) {
+            try {
+                json.endObject();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        } else {
+            indent.setLength(indent.length() - 2);
+        }
+        return this;
+    }
+
+    public DumpWriter beginArray(String name) {
+        if (json != null) {
+            try {
+                json.name(name);
+                json.beginArray();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        } else {
+            pw.println(indent + name + ":");
+            indent.append("  ");
+        }
+        return this;
+    }
+
+    public DumpWriter endArray() {
+        if (json != null) {
+            try {
+                json.endArray();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        } else {
+            indent.setLength(indent.length() - 2);
+        }
+        return this;
+    }
+
+    public DumpWriter value(String name, long value) {
+        if (json != null) {
+            try {
+                if (name != null) json.name(name);
+                json.value(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        } else {
+            pw.println(indent + (name != null ? name + "=" : "") + value);
+        }
+        return this;
+    }
+
+    public DumpWriter value(String name, boolean value) {
+        if (json != null) {
+            try {
+                if (name != null) json.name(name);
+                json.value(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        } else {
+            pw.println(indent + (name != null ? name + "=" : "") + value);
+        }
+        return this;
+    }
+
+    public DumpWriter value(String name, String value) {
+        if (json != null) {
+            try {
+                if (name != null) json.name(name);
+                json.value(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        } else {
+            pw.println(indent + (name != null ? name + "=" : "") + value);
+        }
+        return this;
+    }
+
+    public void flush() {
+        if (json != null) {
+            try {
+                json.flush();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            pw.println();
+        }
+        pw.flush();
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package rikka.sui.util;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Writes log lines to a file from a background thread.
+ * <p>
+ * Lines are kept in a bounded ring buffer, the oldest ones are dropped if the writer falls
+ * behind, so that logging never blocks on disk. The file is kept open, and rotated to "file.1"
+ * when it reaches {@link #MAX_FILE_SIZE}.
+ */
+public class LogFileWriter {
+
+    private static final int CAPACITY = 256;
+    private static final long MAX_FILE_SIZE = 512 * 1024;
+
+    private static final Map<String, LogFileWriter> WRITERS = new HashMap<>();
+
+    public static LogFileWriter get(String path) {
+        synchronized (WRITERS) {
+            LogFileWriter writer = WRITERS.get(path);
+            if (writer == null) {
+                writer = new LogFileWriter(path);
+                WRITERS.put(path, writer);
+            }
+            return writer;
+        }
+    }
+
+    private final File file;
+    private final long[] times = new long[CAPACITY];
+    private final int[] priorities = new int[CAPACITY];
+    private final String[] tags = new String[CAPACITY];
+    private final String[] messages = new String[CAPACITY];
+    private int head;
+    private int size;
+    private int dropped;
+    private Thread thread;
+
+    // Only used on the writer thread
+    private FileOutputStream out;
+    private long length;
+    private boolean opened;
+
+    private LogFileWriter(String path) {
+        this.file = new File(path);
+    }
+
+    public void write(int priority, String tag, String msg) {
+        synchronized (this) {
+            int index = (head + size) % CAPACITY;
+            if (size == CAPACITY) {
+                // Overwrite the oldest
+                head = (head + 1) % CAPACITY;
+                dropped++;
+            } else {
+                size++;
+            }
+            times[index] = System.currentTimeMillis();
+            priorities[index] = priority;
+            tags[index] = tag;
+            messages[index] = msg;
+
+            if (thread == null) {
+                thread = new Thread(this::loop, "SuiLogWriter");
+                thread.setDaemon(true);
+                thread.start();
+            }
+            notify();
+        }
+    }
+
+    private static char getPriorityChar(int priority) {
+        switch (priority) {
+            case Log.VERBOSE:
+                return 'V';
+            case Log.DEBUG:
+                return 'D';
+            case Log.INFO:
+                return 'I';
+            case Log.WARN:
+                return 'W';
+            case Log.ERROR:
+                return 'E';
+            default:
+                return '?';
+        }
+    }
+
+    /**
+     * Rotate the file if it's full, and open it if it's not open.
+     * <p>
+     * The file is truncated the first time it's opened, like the FileHandler this replaces did,
+     * so that it only has the log of the current server.
+     */
+    private void ensureOpen() throws IOException {
+        if (out != null && length < MAX_FILE_SIZE) {
+            return;
+        }
+
+        if (out != null) {
+            out.close();
+            out = null;
+
+            File old = new File(file.getPath() + ".1");
+            //noinspection ResultOfMethodCallIgnored
+            old.delete();
+            //noinspection ResultOfMethodCallIgnored
+            file.renameTo(old);
+        }
+        out = new FileOutputStream(file, opened);
+        length = opened ? file.length() : 0;
+        opened = true;
+    }
+
+    private void loop() {
+        SimpleDateFormat format = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.ENGLISH);
+        Date date = new Date();
+        StringBuilder sb = new StringBuilder();
+        long[] batchTimes = new long[CAPACITY];
+        int[] batchPriorities = new int[CAPACITY];
+        String[] batchTags = new String[CAPACITY];
+        String[] batchMessages = new String[CAPACITY];
+
+        //noinspection InfiniteLoopStatement
+        while (true) {
+            int count = 0;
+            int batchDropped;
+            synchronized (this) {
+                while (size == 0) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+
+                batchDropped = dropped;
+                dropped = 0;
+
+                // Only copy under the lock, so that write() is not held up by formatting
+                while (size > 0) {
+                    batchTimes[count] = times[head];
+                    batchPriorities[count] = priorities[head];
+                    batchTags[count] = tags[head];
+                    batchMessages[count] = messages[head];
+                    count++;
+                    tags[head] = null;
+                    messages[head] = null;
+                    head = (head + 1) % CAPACITY;
+                    size--;
+                }
+            }
+
+            sb.setLength(0);
+            if (batchDropped > 0) {
+                sb.append(batchDropped).append(" lines dropped\n");
+            }
+            for (int i = 0; i < count; i++) {
+                date.setTime(batchTimes[i]);
+                sb.append(format.format(date)).append(' ')
+                        .append(getPriorityChar(batchPriorities[i])).append(' ')
+                        .append(batchTags[i]).append(": ")
+                        .append(batchMessages[i]).append('\n');
+                batchTags[i] = null;
+                batchMessages[i] = null;
+            }
+
+            try {
+                ensureOpen();
+                byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+                out.write(bytes);
+                length += bytes.length;
+            } catch (Throwable e) {
+                Log.w("SuiLogWriter", "write " + file, e);
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (IOException ignored) {
+                    }
+                    out = null;
+                }
+            }
+        }
+    }
+}
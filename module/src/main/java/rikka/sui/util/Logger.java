@@ -19,37 +19,87 @@
 
 package rikka.sui.util;
 
+import android.os.SystemProperties;
 import android.util.Log;
 
-import java.io.IOException;
 import java.util.Locale;
-import java.util.logging.FileHandler;
-import java.util.logging.SimpleFormatter;
+
+import rikka.sui.BuildConfig;
 
 public class Logger {
 
+    private static final String PROP_LOG_LEVEL = "persist.sui.log_level";
+
+    private static int minLevel = -1;
+
     private final String TAG;
-    private final java.util.logging.Logger LOGGER;
+    private final LogFileWriter writer;
 
     public Logger(String TAG) {
         this.TAG = TAG;
-        this.LOGGER = null;
+        this.writer = null;
     }
 
     public Logger(String TAG, String file) {
         this.TAG = TAG;
-        this.LOGGER = java.util.logging.Logger.getLogger(TAG);
-        try {
-            FileHandler fh = new FileHandler(file);
-            fh.setFormatter(new SimpleFormatter());
-            LOGGER.addHandler(fh);
-        } catch (IOException e) {
-            e.printStackTrace();
+        this.writer = LogFileWriter.get(file);
+    }
+
+    /**
+     * Parse the level from {@code persist.sui.log_level}, which is one of v, d, i, w, e or the
+     * priority constant in {@link Log}. Defaults to verbose for debug builds and info for
+     * release builds.
+     */
+    private static int getMinLevel() {
+        if (minLevel != -1) {
+            return minLevel;
         }
+
+        int level = BuildConfig.DEBUG ? Log.VERBOSE : Log.INFO;
+        String value = null;
+        try {
+            value = SystemProperties.get(PROP_LOG_LEVEL);
+        } catch (Throwable ignored) {
+        }
+        if (value != null && !value.isEmpty()) {
+            switch (Character.toLowerCase(value.charAt(0))) {
+                case 'v':
+                    level = Log.VERBOSE;
+                    break;
+                case 'd':
+                    level = Log.DEBUG;
+                    break;
+                case 'i':
+                    level = Log.INFO;
+                    break;
+                case 'w':
+                    level = Log.WARN;
+                    break;
+                case 'e':
+                    level = Log.ERROR;
+                    break;
+                default:
+                    try {
+                        level = Integer.parseInt(value);
+                    } catch (NumberFormatException ignored) {
+                    }
+                    break;
+            }
+        }
+        minLevel = level;
+        return level;
     }
 
     public boolean isLoggable(String tag, int level) {
-        return true;
+        return level >= getMinLevel();
+    }
+
+    /**
+     * Call sites on hot paths check this first, so that the varargs array is not built and
+     * primitives are not boxed when the level is filtered.
+     */
+    public boolean isLoggable(int level) {
+        return isLoggable(TAG, level);
     }
 
     public void v(String msg) {
@@ -155,8 +205,8 @@ public class Logger {
     }
 
     public int println(int priority, String msg) {
-        if (LOGGER != null) {
-            LOGGER.info(msg);
+        if (writer != null) {
+            writer.write(priority, TAG, msg);
         }
         return Log.println(priority, TAG, msg);
     }
@@ -20,6 +20,12 @@
 package rikka.sui.util;
 
 import android.os.SELinux;
+import android.system.Os;
+import android.system.OsConstants;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
 
 public class OsUtils {
 
@@ -49,5 +55,39 @@ public class OsUtils {
     public static String getSELinuxContext() {
         return SELINUX_CONTEXT;
     }
-}
 
+    /**
+     * Returns VmRSS of the process in kB, or -1 if the process does not exist.
+     */
+    public static long getRssKb(int pid) {
+        try (BufferedReader reader = new BufferedReader(new FileReader("/proc/" + pid + "/status"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.substring("VmRSS:".length(), line.length() - "kB".length()).trim());
+                }
+            }
+        } catch (IOException | NumberFormatException ignored) {
+        }
+        return -1;
+    }
+
+    /**
+     * Returns user + system CPU time of the process in milliseconds, or -1 if the process
+     * does not exist.
+     */
+    public static long getCpuTimeMillis(int pid) {
+        try (BufferedReader reader = new BufferedReader(new FileReader("/proc/" + pid + "/stat"))) {
+            String line = reader.readLine();
+            if (line == null) {
+                return -1;
+            }
+            // comm may contain spaces, fields after it start from the 3rd one
+            String[] fields = line.substring(line.lastIndexOf(')') + 2).split(" ");
+            long ticks = Long.parseLong(fields[11]) + Long.parseLong(fields[12]);
+            return ticks * 1000 / Os.sysconf(OsConstants._SC_CLK_TCK);
+        } catch (IOException | RuntimeException ignored) {
+        }
+        return -1;
+    }
+}
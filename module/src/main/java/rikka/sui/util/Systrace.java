@@ -0,0 +1,63 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package rikka.sui.util;
+
+import android.os.Build;
+import android.os.Trace;
+
+/**
+ * Trace sections of Sui, shown in system traces recorded with app tracing enabled for the
+ * process (for example, "atrace -a '*'" or atrace_apps in a Perfetto config).
+ * <p>
+ * Callers which build the section name should check {@link #isEnabled()} first.
+ */
+public class Systrace {
+
+    // Trace#beginSection throws for longer names
+    private static final int MAX_SECTION_NAME_LEN = 127;
+
+    public static boolean isEnabled() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            return Trace.isEnabled();
+        }
+        // Trace#beginSection checks the tag before it writes anything
+        return true;
+    }
+
+    public static void begin(String name) {
+        if (!isEnabled()) {
+            return;
+        }
+        if (name.length() > MAX_SECTION_NAME_LEN) {
+            name = name.substring(0, MAX_SECTION_NAME_LEN);
+        }
+        Trace.beginSection(name);
+    }
+
+    /**
+     * End the section, must be called on the thread which begins it.
+     */
+    public static void end() {
+        if (!isEnabled()) {
+            return;
+        }
+        Trace.endSection();
+    }
+}
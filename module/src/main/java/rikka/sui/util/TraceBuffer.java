@@ -0,0 +1,224 @@
+/*
+ * This file is part of Sui.
+ *
+ * Sui is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Sui is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2021 Sui Contributors
+ */
+
+package rikka.sui.util;
+
+import android.os.SystemClock;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size ring buffer of compact binary event records, for recent history without text
+ * logging.
+ * <p>
+ * Writers claim a slot with one atomic increment and never block. Each record is
+ * {@link #RECORD_LONGS} longs: the sequence number which is written last and marks the record
+ * as complete, the timestamp ({@link SystemClock#elapsedRealtimeNanos()}), event id and code,
+ * uid and pid, and the duration in nanoseconds. A reader skips records whose sequence number
+ * does not match the slot, which are being written or already overwritten.
+ * <p>
+ * The binary dump is {@link #MAGIC}, {@link #VERSION}, the record count, then the records
+ * oldest first, all big-endian. scripts/sui_trace.py decodes it on the host.
+ */
+public class TraceBuffer {
+
+    public static final int MAGIC = 0x53554954; // SUIT
+    public static final int VERSION = 1;
+
+    public static final int EVENT_ATTACH_APPLICATION = 1;
+    public static final int EVENT_REQUEST_PERMISSION = 2;
+    public static final int EVENT_PERMISSION_RESULT = 3;
+    public static final int EVENT_TRANSACT_REMOTE = 4;
+    public static final int EVENT_ATTACH_USER_SERVICE = 5;
+    public static final int EVENT_BRIDGE_SEND_BINDER = 6;
+    public static final int EVENT_BRIDGE_GET_BINDER = 7;
+    public static final int EVENT_BRIDGE_REATTACH = 8;
+    public static final int EVENT_PACKAGES_CHANGED = 9;
+
+    private static final String[] EVENT_NAMES = {
+            "?", "attach_application", "request_permission", "permission_result", "transact_remote",
+            "attach_user_service", "bridge_send_binder", "bridge_get_binder", "bridge_reattach",
+            "packages_changed"
+    };
+
+    private static final int RECORD_LONGS = 5;
+
+    private final int capacity;
+    private final AtomicLong next = new AtomicLong();
+    private final AtomicLongArray records;
+
+    /**
+     * @param capacity number of records, must be a power of two
+     */
+    public TraceBuffer(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two");
+        }
+        this.capacity = capacity;
+        this.records = new AtomicLongArray(capacity * RECORD_LONGS);
+    }
+
+    public static String getEventName(int event) {
+        return event > 0 && event < EVENT_NAMES.length ? EVENT_NAMES[event] : Integer.toString(event);
+    }
+
+    /**
+     * Returns the start time to be passed to {@link #record(int, int, int, int, long)}.
+     */
+    public static long start() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    public void record(int event, int uid, int pid, int code) {
+        record(event, uid, pid, code, -1);
+    }
+
+    /**
+     * @param start the time returned by {@link #start()} to record the duration, or -1
+     */
+    public void record(int event, int uid, int pid, int code, long start) {
+        long now = SystemClock.elapsedRealtimeNanos();
+        long seq = next.getAndIncrement();
+        int base = (int) (seq & (capacity - 1)) * RECORD_LONGS;
+
+        // Invalidate the slot before writing, a volatile write so that the field writes below
+        // can't become visible before it and a reader can't take a torn record as valid
+        records.set(base, -1);
+        records.lazySet(base + 1, now);
+        records.lazySet(base + 2, ((long) event << 32) | (code & 0xffffffffL));
+        records.lazySet(base + 3, ((long) uid << 32) | (pid & 0xffffffffL));
+        records.lazySet(base + 4, start != -1 ? now - start : -1);
+        records.set(base, seq);
+    }
+
+    private interface Visitor {
+        void visit(long time, int event, int code, int uid, int pid, long duration) throws IOException;
+    }
+
+    private int forEach(Visitor visitor) throws IOException {
+        long end = next.get();
+        long begin = Math.max(0, end - capacity);
+        int count = 0;
+        for (long seq = begin; seq < end; seq++) {
+            int base = (int) (seq & (capacity - 1)) * RECORD_LONGS;
+            if (records.get(base) != seq) {
+                continue;
+            }
+            long time = records.get(base + 1);
+            long eventCode = records.get(base + 2);
+            long uidPid = records.get(base + 3);
+            long duration = records.get(base + 4);
+            // Overwritten while reading
+            if (records.get(base) != seq) {
+                continue;
+            }
+            if (visitor != null) {
+                visitor.visit(time, (int) (eventCode >> 32), (int) eventCode, (int) (uidPid >> 32), (int) uidPid, duration);
+            }
+            count++;
+        }
+        return count;
+    }
+
+    private static void print(PrintWriter pw, long now, long time, int event, int code, int uid, int pid, long duration) {
+        pw.printf(Locale.ENGLISH, "  -%d.%03ds %s uid=%d pid=%d code=%d%s%n",
+                (now - time) / 1000000000, (now - time) / 1000000 % 1000,
+                getEventName(event), uid, pid, code,
+                duration != -1 ? String.format(Locale.ENGLISH, " duration=%dus", duration / 1000) : "");
+    }
+
+    public void dump(PrintWriter pw) {
+        long now = SystemClock.elapsedRealtimeNanos();
+        try {
+            forEach((time, event, code, uid, pid, duration) -> print(pw, now, time, event, code, uid, pid, duration));
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Decode the binary form from {@link #toByteArray()}, which may come from another process
+     * on the same boot.
+     */
+    public static void dump(PrintWriter pw, byte[] bytes) {
+        long now = SystemClock.elapsedRealtimeNanos();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                pw.println("  unknown trace format");
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long time = in.readLong();
+                int event = in.readInt();
+                int code = in.readInt();
+                int uid = in.readInt();
+                int pid = in.readInt();
+                long duration = in.readLong();
+                print(pw, now, time, event, code, uid, pid, duration);
+            }
+        } catch (IOException e) {
+            pw.println("  truncated trace");
+        }
+    }
+
+    public byte[] toByteArray() {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(records);
+        int count;
+        try {
+            count = forEach((time, event, code, uid, pid, duration) -> {
+                out.writeLong(time);
+                out.writeInt(event);
+                out.writeInt(code);
+                out.writeInt(uid);
+                out.writeInt(pid);
+                out.writeLong(duration);
+            });
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream(12 + records.size());
+        DataOutputStream header = new DataOutputStream(os);
+        try {
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.writeInt(count);
+            records.writeTo(os);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return os.toByteArray();
+    }
+
+    public void writeTo(OutputStream os) throws IOException {
+        os.write(toByteArray());
+        os.flush();
+    }
+}
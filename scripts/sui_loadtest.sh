@@ -0,0 +1,32 @@
+#!/bin/sh
+#
+# This file is part of Sui.
+#
+# Sui is free software: you can redistribute it and/or modify
+# it under the terms of the GNU General Public License as published by
+# the Free Software Foundation, either version 3 of the License, or
+# (at your option) any later version.
+#
+# Sui is distributed in the hope that it will be useful,
+# but WITHOUT ANY WARRANTY; without even the implied warranty of
+# MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+# GNU General Public License for more details.
+#
+# You should have received a copy of the GNU General Public License
+# along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+#
+# Copyright (c) 2021 Sui Contributors
+#
+
+# Run the load generator (rikka.sui.loadtest.Main) on the connected device as shell.
+# transactRemote requires shell to be allowed in Sui, requestPermission is not in the
+# default mix since it shows the dialog.
+#
+#   scripts/sui_loadtest.sh --clients 16 --duration 10 --rate 200
+
+set -e
+
+DEX=/data/local/tmp/sui_loadtest.dex
+
+adb shell su -c "'cp /data/adb/sui/sui.dex $DEX && chmod 644 $DEX'"
+adb shell /system/bin/app_process -Djava.class.path=$DEX /system/bin --nice-name=sui_loadtest rikka.sui.loadtest.Main "$@"
@@ -0,0 +1,86 @@
+#!/usr/bin/env python3
+#
+# This file is part of Sui.
+#
+# Sui is free software: you can redistribute it and/or modify
+# it under the terms of the GNU General Public License as published by
+# the Free Software Foundation, either version 3 of the License, or
+# (at your option) any later version.
+#
+# Sui is distributed in the hope that it will be useful,
+# but WITHOUT ANY WARRANTY; without even the implied warranty of
+# MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+# GNU General Public License for more details.
+#
+# You should have received a copy of the GNU General Public License
+# along with Sui.  If not, see <https://www.gnu.org/licenses/>.
+#
+# Copyright (c) 2021 Sui Contributors
+#
+
+"""Decode the binary trace dumped by the Sui server (rikka.sui.util.TraceBuffer).
+
+Get the trace of the server, or of the bridge in system_server with --bridge:
+
+    adb exec-out su -c 'app_process -Djava.class.path=/data/adb/sui/sui.dex /system/bin rikka.sui.server.Dump trace --binary' > trace.bin
+    python3 scripts/sui_trace.py trace.bin
+"""
+
+import struct
+import sys
+
+MAGIC = 0x53554954
+VERSION = 1
+
+EVENTS = [
+    "?", "attach_application", "request_permission", "permission_result", "transact_remote",
+    "attach_user_service", "bridge_send_binder", "bridge_get_binder", "bridge_reattach",
+    "packages_changed",
+]
+
+HEADER = struct.Struct(">iii")
+RECORD = struct.Struct(">qiiiiq")
+
+
+def event_name(event):
+    return EVENTS[event] if 0 < event < len(EVENTS) else str(event)
+
+
+def decode(data):
+    magic, version, count = HEADER.unpack_from(data, 0)
+    if magic != MAGIC:
+        raise ValueError("not a Sui trace")
+    if version != VERSION:
+        raise ValueError("unsupported version %d" % version)
+
+    offset = HEADER.size
+    for _ in range(count):
+        if offset + RECORD.size > len(data):
+            break
+        yield RECORD.unpack_from(data, offset)
+        offset += RECORD.size
+
+
+def main():
+    if len(sys.argv) != 2:
+        print("usage: %s <trace.bin>" % sys.argv[0], file=sys.stderr)
+        sys.exit(1)
+
+    with open(sys.argv[1], "rb") as f:
+        data = f.read()
+
+    records = list(decode(data))
+    if not records:
+        return
+
+    first = records[0][0]
+    for time, event, code, uid, pid, duration in records:
+        line = "+%10.3fms %-20s uid=%-6d pid=%-6d code=%d" % (
+            (time - first) / 1e6, event_name(event), uid, pid, code)
+        if duration != -1:
+            line += " duration=%dus" % (duration // 1000)
+        print(line)
+
+
+if __name__ == "__main__":
+    main()
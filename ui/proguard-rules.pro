@@ -8,6 +8,10 @@
      public <init>(...);
 }
 
+-keepclassmembers class rikka.sui.permission.ConfirmationDialog {
+     public void show(int, int, java.lang.String, int);
+}
+
 -keepnames class * implements android.os.Parcelable
 
 -keepclassmembers class * implements android.os.Parcelable {
@@ -26,10 +26,11 @@ import rikka.sui.permission.ConfirmationDialog;
 
 public class SuiRequestPermissionDialog extends ConfirmationDialog {
 
-    public SuiRequestPermissionDialog(
-            Application application, Resources resources,
-            int requestUid, int requestPid, String requestPackageName, int requestCode) {
+    /**
+     * Create a dialog that is reused for every request, its views are prepared ahead of time.
+     */
+    public SuiRequestPermissionDialog(Application application, Resources resources) {
         super(application, resources);
-        show(requestUid, requestPid, requestPackageName, requestCode);
+        prewarm();
     }
 }
@@ -34,6 +34,7 @@ import android.graphics.PixelFormat;
 import android.os.Binder;
 import android.os.Bundle;
 import android.os.IBinder;
+import android.os.Looper;
 import android.view.Gravity;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -59,16 +60,116 @@ public class ConfirmationDialog {
     private static final IBinder TOKEN = new Binder();
     private static final Logger LOGGER = new Logger("ConfirmationDialog");
 
+    /**
+     * Dialog views inflated and styled ahead of time, only text and listeners are bound when
+     * the dialog is shown.
+     */
+    private class Prepared {
+
+        final Configuration configuration;
+        final DialogRootView root;
+        final ConfirmationDialogBinding binding;
+        final String titleTemplate;
+        final String description;
+
+        @SuppressWarnings("deprecation")
+        Prepared(Configuration configuration) {
+            this.configuration = configuration;
+
+            // Resources of the apk are created with the configuration when it's loaded
+            if (!configuration.equals(resources.getConfiguration())) {
+                resources.updateConfiguration(configuration, context.getResources().getDisplayMetrics());
+            }
+
+            boolean isNight = (configuration.uiMode & Configuration.UI_MODE_NIGHT_YES) != 0;
+            Resources.Theme theme = context.getTheme();
+            if (isNight) {
+                theme.applyStyle(android.R.style.Theme_DeviceDefault_Dialog, true);
+            } else {
+                theme.applyStyle(android.R.style.Theme_DeviceDefault_Light_Dialog, true);
+            }
+
+            root = new DialogRootView(context);
+
+            View view = layoutInflater.inflate(resources.getLayout(R.layout.confirmation_dialog), root, false);
+            binding = ConfirmationDialogBinding.bind(view);
+            root.addView(binding.getRoot());
+
+            binding.icon.setImageDrawable(resources.getDrawable(R.drawable.ic_su_24, theme));
+            binding.button1.setText(resources.getString(R.string.grant_dialog_button_allow_always));
+            binding.button2.setText(resources.getString(R.string.grant_dialog_button_allow_one_time));
+            binding.button3.setText(resources.getString(R.string.grant_dialog_button_deny_and_dont_ask_again));
+
+            ColorStateList buttonTextColor = resources.getColorStateList(R.color.confirmation_dialog_button_text, theme);
+            binding.button1.setTextColor(buttonTextColor);
+            binding.button2.setTextColor(buttonTextColor);
+            binding.button3.setTextColor(buttonTextColor);
+
+            binding.getRoot().setBackground(resources.getDrawable(R.drawable.confirmation_dialog_background, theme));
+            binding.getRoot().setClipToOutline(true);
+
+            titleTemplate = resources.getString(R.string.permission_warning_template);
+            description = resources.getString(R.string.permission_description);
+        }
+    }
+
+    private class DialogRootView extends SystemDialogRootView {
+
+        int requestUid;
+        int requestPid;
+        int requestCode;
+
+        DialogRootView(Context context) {
+            super(context);
+        }
+
+        @Override
+        public boolean onBackPressed() {
+            return false;
+        }
+
+        @Override
+        public void onClose() {
+            setResult(requestUid, requestPid, requestCode, false, true);
+        }
+    }
+
     private final Context context;
     private final Resources resources;
     private final LayoutInflater layoutInflater;
 
+    // Prepared for the configuration it holds, only accessed from the main thread
+    private Prepared prepared;
+
     public ConfirmationDialog(Application application, Resources resources) {
         this.context = application;
         this.resources = resources;
         this.layoutInflater = LayoutInflater.from(application);
     }
 
+    private Configuration getConfiguration() {
+        return new Configuration(context.getResources().getConfiguration());
+    }
+
+    /**
+     * Prepare the dialog views for the current configuration (night mode, locale, font scale
+     * and so on) on the main thread when it's idle.
+     */
+    public void prewarm() {
+        HandlerKt.getMainHandler().post(() -> Looper.myQueue().addIdleHandler(() -> {
+            Configuration configuration = getConfiguration();
+            if (prepared == null || !prepared.configuration.equals(configuration)) {
+                try {
+                    prepared = new Prepared(configuration);
+                    LOGGER.v("dialog prepared for %s", configuration);
+                } catch (Throwable e) {
+                    LOGGER.w(e, "prewarm");
+                }
+            }
+            return false;
+        }));
+    }
+
     public void show(int requestUid, int requestPid, String requestPackageName, int requestCode) {
         HandlerKt.getMainHandler().post(() -> showInternal(requestUid, requestPid, requestPackageName, requestCode));
     }
@@ -77,7 +178,6 @@ public class ConfirmationDialog {
         Bundle data = new Bundle();
         data.putBoolean(REQUEST_PERMISSION_REPLY_ALLOWED, allowed);
         data.putBoolean(REQUEST_PERMISSION_REPLY_IS_ONETIME, onetime);
-
         try {
             BridgeServiceClient.getService().dispatchPermissionConfirmationResult(requestUid, requestPid, requestCode, data);
         } catch (Throwable e) {
@@ -86,30 +186,20 @@ public class ConfirmationDialog {
     }
 
     private void showInternal(int requestUid, int requestPid, String requestPackageName, int requestCode) {
-        Resources.Theme theme = context.getTheme();
-        boolean isNight = (context.getResources().getConfiguration().uiMode & Configuration.UI_MODE_NIGHT_YES) != 0;
-        if (isNight) {
-            theme.applyStyle(android.R.style.Theme_DeviceDefault_Dialog, true);
-        } else {
-            theme.applyStyle(android.R.style.Theme_DeviceDefault_Light_Dialog, true);
+        // Views can't be shared by two dialogs, take the prepared one and prepare the next
+        Configuration configuration = getConfiguration();
+        Prepared p = prepared;
+        prepared = null;
+        if (p == null || !p.configuration.equals(configuration)) {
+            p = new Prepared(configuration);
         }
+        prewarm();
 
-        SystemDialogRootView root = new SystemDialogRootView(context) {
-
-            @Override
-            public boolean onBackPressed() {
-                return false;
-            }
-
-            @Override
-            public void onClose() {
-                setResult(requestUid, requestPid, requestCode, false, true);
-            }
-        };
-
-        View view = layoutInflater.inflate(resources.getLayout(R.layout.confirmation_dialog), root, false);
-        ConfirmationDialogBinding binding = ConfirmationDialogBinding.bind(view);
-        root.addView(binding.getRoot());
+        DialogRootView root = p.root;
+        ConfirmationDialogBinding binding = p.binding;
+        root.requestUid = requestUid;
+        root.requestPid = requestPid;
+        root.requestCode = requestCode;
 
         String label = requestPackageName;
         int userId = UserHandleCompat.getUserId(requestUid);
@@ -122,17 +212,7 @@ public class ConfirmationDialog {
             LOGGER.e("getApplicationInfoAsUser");
         }
 
-        binding.icon.setImageDrawable(resources.getDrawable(R.drawable.ic_su_24, theme));
-        binding.title.setText(HtmlCompat.fromHtml(
-                String.format(resources.getString(R.string.permission_warning_template), label, resources.getString(R.string.permission_description))));
-        binding.button1.setText(resources.getString(R.string.grant_dialog_button_allow_always));
-        binding.button2.setText(resources.getString(R.string.grant_dialog_button_allow_one_time));
-        binding.button3.setText(resources.getString(R.string.grant_dialog_button_deny_and_dont_ask_again));
-
-        ColorStateList buttonTextColor = resources.getColorStateList(R.color.confirmation_dialog_button_text, theme);
-        binding.button1.setTextColor(buttonTextColor);
-        binding.button2.setTextColor(buttonTextColor);
-        binding.button3.setTextColor(buttonTextColor);
+        binding.title.setText(HtmlCompat.fromHtml(String.format(p.titleTemplate, label, p.description)));
 
         binding.button1.setOnClickListener(v -> {
             setResult(requestUid, requestPid, requestCode, true, false);
@@ -151,9 +231,6 @@ public class ConfirmationDialog {
         TextViewKt.applyCountdown(binding.button2, 1, null, 0);
         TextViewKt.applyCountdown(binding.button3, 1, null, 0);
 
-        binding.getRoot().setBackground(resources.getDrawable(R.drawable.confirmation_dialog_background, theme));
-        binding.getRoot().setClipToOutline(true);
-
         WindowManager.LayoutParams attr = new WindowManager.LayoutParams();
         attr.width = ViewGroup.LayoutParams.MATCH_PARENT;
         attr.height = ViewGroup.LayoutParams.WRAP_CONTENT;